@@ -9,6 +9,9 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 
+import com.aretha.content.image.ImagePrefetcher;
+import com.aretha.content.image.ImagePrefetcher.ImageUrlProvider;
+
 /**
  * Provide a general use of adapter�� improve the performance of scroll
  * 
@@ -20,7 +23,7 @@ import android.widget.BaseAdapter;
  *            sub class of {@link ViewHolder}
  */
 public abstract class AbstractBaseAdapter<Data, Holder extends ViewHolder<Data>>
-		extends BaseAdapter {
+		extends BaseAdapter implements ImageUrlProvider {
 	protected Context mContext;
 	private LayoutInflater mInflater;
 	private Collection<Data> mData;
@@ -87,6 +90,18 @@ public abstract class AbstractBaseAdapter<Data, Holder extends ViewHolder<Data>>
 		super.notifyDataSetInvalidated();
 	}
 
+	/**
+	 * Return the image url of the item, so the image can be loaded by
+	 * {@link ImagePrefetcher} before the item is shown
+	 * 
+	 * @param position
+	 * @return null if the item has no image
+	 */
+	@Override
+	public String getImageUrl(int position) {
+		return null;
+	}
+
 	/**
 	 * BaseListAdapter will call this method to get adapter data when needed
 	 * 
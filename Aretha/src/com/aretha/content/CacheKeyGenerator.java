@@ -0,0 +1,32 @@
+/* Copyright (c) 2011-2012 Tang Ke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aretha.content;
+
+/**
+ * Generate the cache file name for a cache identifier, such as an url. The
+ * generated name must be the same for the same identifier, and only contains
+ * the characters which can be used in a file name
+ * 
+ * @see FileCacheManager#setCacheKeyGenerator(CacheKeyGenerator)
+ * @author Tank
+ */
+public interface CacheKeyGenerator {
+	/**
+	 * @param cacheIdentifier
+	 *            can not be null
+	 * @return the cache file name
+	 */
+	public String generate(String cacheIdentifier);
+}
@@ -15,14 +15,35 @@
 package com.aretha.content;
 
 import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import android.content.Context;
+import android.util.Log;
 
 import com.aretha.util.Utils;
 
@@ -30,10 +51,86 @@ import com.aretha.util.Utils;
  * A simple class to manage the cached file which saved in the
  * /data/data/{package name}/files/ folder or a specified directory
  * 
+ * <p>
+ * The cache can be bounded by {@link #setMaxCacheSize(long)} and
+ * {@link #setMaxCacheCount(int)}, the least recently used files will be
+ * deleted in background when the cache is full. The access order is recorded
+ * in an append only journal file, so the cache does not need to stat every
+ * file to restore the order
+ * </p>
+ * 
+ * <p>
+ * The file is written into a temporary file first, then renamed to the cache
+ * file atomically, so a reader will never read a half written file
+ * </p>
+ * 
+ * <p>
+ * By default all the files are stored in the cache directory, for a large
+ * number of files {@link #setShardedLayout(boolean)} can spread them into two
+ * levels of sub directories to keep the directory lookup fast
+ * </p>
+ * 
+ * <p>
+ * The cache file is named by {@link CacheKeyGenerator}, which is
+ * {@link UUIDCacheKeyGenerator} by default
+ * </p>
+ * 
  * @author Tank
  */
 public class FileCacheManager {
+	private final static String LOG_TAG = "FileCacheManager";
+
+	private final static String JOURNAL_FILE_NAME = "journal";
+	private final static String JOURNAL_FILE_NAME_TEMP = "journal.tmp";
+	private final static String JOURNAL_WRITE = "WRITE";
+	private final static String JOURNAL_READ = "READ";
+	private final static String JOURNAL_REMOVE = "REMOVE";
+	private final static String JOURNAL_LAYOUT = "LAYOUT";
+	private final static String LAYOUT_FLAT = "flat";
+	private final static String LAYOUT_SHARDED = "sharded";
+	private final static String TEMP_FILE_SUFFIX = ".tmp";
+	private final static char VARIANT_SEPARATOR = '.';
+	private final static int SHARD_DEPTH = 2;
+	private final static int JOURNAL_REDUNDANT_THRESHOLD = 2000;
+
+	private final static long TRIM_THREAD_KEEP_ALIVE_SECONDS = 60L;
+
+	/**
+	 * Shared by all the {@link FileCacheManager} to delete the least recently
+	 * used files
+	 */
+	private final static ExecutorService sTrimExecutor = new ThreadPoolExecutor(
+			0, 1, TRIM_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>());
+
 	private File mCacheFileDirectory;
+	private volatile boolean mIsShardedLayout;
+	private volatile CacheKeyGenerator mCacheKeyGenerator = new UUIDCacheKeyGenerator();
+	private volatile CacheKeyGenerator mLegacyCacheKeyGenerator;
+
+	private long mMaxCacheSize;
+	private int mMaxCacheCount;
+
+	private final Object mJournalLock = new Object();
+	/**
+	 * cache file name to file length in access order, null before the journal
+	 * is loaded
+	 */
+	private LinkedHashMap<String, Long> mEntries;
+	/**
+	 * cache file name of the original to the names of its variants
+	 */
+	private HashMap<String, List<String>> mVariantNames;
+	private long mCacheSize;
+	private Writer mJournalWriter;
+	private int mRedundantOperationCount;
+	private boolean mIsTrimScheduled;
+
+	private boolean mIsSyncOnWrite;
+	/**
+	 * cache file name to the latch of the in-flight writer
+	 */
+	private final HashMap<String, CountDownLatch> mWritingFiles = new HashMap<String, CountDownLatch>();
 
 	public FileCacheManager(Context context) {
 		this(context, null);
@@ -64,7 +161,129 @@ public class FileCacheManager {
 				|| !directory.canWrite()) {
 			return;
 		}
-		mCacheFileDirectory = directory;
+		synchronized (mJournalLock) {
+			closeJournal();
+			mCacheFileDirectory = directory;
+		}
+	}
+
+	/**
+	 * Set the rule to name the cache file
+	 * 
+	 * @param cacheKeyGenerator
+	 */
+	public void setCacheKeyGenerator(CacheKeyGenerator cacheKeyGenerator) {
+		setCacheKeyGenerator(cacheKeyGenerator, null);
+	}
+
+	/**
+	 * Set the rule to name the cache file, and keep the files named by the
+	 * previous rule available. When a file is not found, the file named by
+	 * the legacy rule will be renamed to the new rule
+	 * 
+	 * @param cacheKeyGenerator
+	 * @param legacyCacheKeyGenerator
+	 *            the previous rule, null if there is no previous file
+	 */
+	public void setCacheKeyGenerator(CacheKeyGenerator cacheKeyGenerator,
+			CacheKeyGenerator legacyCacheKeyGenerator) {
+		if (null == cacheKeyGenerator) {
+			throw new IllegalArgumentException(
+					"cacheKeyGenerator can not be null");
+		}
+		mCacheKeyGenerator = cacheKeyGenerator;
+		mLegacyCacheKeyGenerator = legacyCacheKeyGenerator;
+	}
+
+	public CacheKeyGenerator getCacheKeyGenerator() {
+		return mCacheKeyGenerator;
+	}
+
+	/**
+	 * Store the cached files in two levels of sub directories named by the
+	 * first characters of the file name, instead of in the cache directory
+	 * directly. The existing files will be moved to the new layout in
+	 * background
+	 * 
+	 * @param shardedLayout
+	 */
+	public void setShardedLayout(boolean shardedLayout) {
+		synchronized (mJournalLock) {
+			if (mIsShardedLayout == shardedLayout) {
+				return;
+			}
+			// the layout will be migrated when the journal is loaded again
+			closeJournal();
+			mIsShardedLayout = shardedLayout;
+		}
+		sTrimExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (mJournalLock) {
+					loadJournal();
+				}
+			}
+		});
+	}
+
+	public boolean isShardedLayout() {
+		return mIsShardedLayout;
+	}
+
+	/**
+	 * Set the max bytes of all the cached files, the least recently used
+	 * files will be deleted when exceed
+	 * 
+	 * @param maxCacheSize
+	 *            0 or negative for unlimited
+	 */
+	public void setMaxCacheSize(long maxCacheSize) {
+		mMaxCacheSize = maxCacheSize;
+		scheduleTrim();
+	}
+
+	public long getMaxCacheSize() {
+		return mMaxCacheSize;
+	}
+
+	/**
+	 * Set the max number of the cached files, the least recently used files
+	 * will be deleted when exceed
+	 * 
+	 * @param maxCacheCount
+	 *            0 or negative for unlimited
+	 */
+	public void setMaxCacheCount(int maxCacheCount) {
+		mMaxCacheCount = maxCacheCount;
+		scheduleTrim();
+	}
+
+	public int getMaxCacheCount() {
+		return mMaxCacheCount;
+	}
+
+	/**
+	 * Get the bytes of all the cached files
+	 * 
+	 * @return
+	 */
+	public long getCacheSize() {
+		synchronized (mJournalLock) {
+			loadJournal();
+			return mCacheSize;
+		}
+	}
+
+	/**
+	 * Get the number of the cached files
+	 * 
+	 * @return
+	 */
+	public int getCacheCount() {
+		synchronized (mJournalLock) {
+			loadJournal();
+			return mEntries.size();
+		}
 	}
 
 	/**
@@ -76,8 +295,23 @@ public class FileCacheManager {
 		return mCacheFileDirectory;
 	}
 
+	/**
+	 * Whether to sync the written file to the storage device before it
+	 * becomes visible, it is slower but the file will survive from the power
+	 * loss
+	 * 
+	 * @param syncOnWrite
+	 */
+	public void setSyncOnWrite(boolean syncOnWrite) {
+		mIsSyncOnWrite = syncOnWrite;
+	}
+
+	public boolean isSyncOnWrite() {
+		return mIsSyncOnWrite;
+	}
+
 	public long getCacheFileLength(String cacheIdentifier) {
-		File cacheFile = createCacheFile(cacheIdentifier);
+		File cacheFile = resolveCacheFile(cacheIdentifier);
 		if (null != cacheFile) {
 			return cacheFile.length();
 		}
@@ -105,47 +339,228 @@ public class FileCacheManager {
 	 * @param inputStream
 	 * @param onWriteListener
 	 *            listener to listen the progress of write
-	 * @return
+	 * @return true if the file is written by this call or the in-flight
+	 *         writer of the same identifier. false if failed or the current
+	 *         thread is interrupted
 	 */
 	public boolean writeCacheFile(String cacheIdentifier,
 			InputStream inputStream, OnWriteListener onWriteListener) {
 		File cacheFile = createCacheFile(cacheIdentifier);
-		try {
-			if (!cacheFile.exists()) {
-				cacheFile.createNewFile();
-			}
+		CountDownLatch writingLatch = acquireWriting(cacheFile.getName());
 
-			BufferedOutputStream fileOutputStream = new BufferedOutputStream(
-					new FileOutputStream(cacheFile));
+		// another writer is writing the same file, wait for it instead of
+		// writing again
+		if (null != writingLatch) {
+			try {
+				writingLatch.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			return cacheFile.exists();
+		}
 
+		Editor editor = openEditor(cacheFile);
+		if (null == editor) {
+			return false;
+		}
+		try {
+			OutputStream outputStream = editor.getOutputStream();
 			int read;
 			int totalCount = 0;
 			byte[] buffer = new byte[8 * 1024];
 			while ((read = inputStream.read(buffer)) != -1) {
-				fileOutputStream.write(buffer, 0, read);
+				// the writer has been canceled
+				if (Thread.currentThread().isInterrupted()) {
+					throw new InterruptedIOException();
+				}
+				outputStream.write(buffer, 0, read);
 				totalCount += read;
 
 				if (null != onWriteListener) {
 					onWriteListener.onWriting(totalCount);
 				}
 			}
-			fileOutputStream.flush();
-			return true;
-		} catch (FileNotFoundException e) {
+			return editor.commit();
 		} catch (IOException e) {
+		} finally {
+			editor.abort();
 		}
 		return false;
 	}
 
+	/**
+	 * Open the cache file to write by the caller, such as write it while the
+	 * stream is being consumed by others. The file is written atomically like
+	 * {@link #writeCacheFile(String, InputStream, OnWriteListener)}, the
+	 * {@link Editor} must be committed or aborted
+	 * 
+	 * @param cacheIdentifier
+	 * @return null if the file is being written by another writer, or can not
+	 *         be created
+	 */
+	public Editor edit(String cacheIdentifier) {
+		File cacheFile = createCacheFile(cacheIdentifier);
+		if (null != acquireWriting(cacheFile.getName())) {
+			return null;
+		}
+		return openEditor(cacheFile);
+	}
+
+	/**
+	 * Mark the cache file as being written
+	 * 
+	 * @return the latch of another writer, null if the file is acquired by
+	 *         this call
+	 */
+	private CountDownLatch acquireWriting(String cacheFileName) {
+		synchronized (mWritingFiles) {
+			CountDownLatch writingLatch = mWritingFiles.get(cacheFileName);
+			if (null == writingLatch) {
+				mWritingFiles.put(cacheFileName, new CountDownLatch(1));
+			}
+			return writingLatch;
+		}
+	}
+
+	private void releaseWriting(String cacheFileName) {
+		synchronized (mWritingFiles) {
+			mWritingFiles.remove(cacheFileName).countDown();
+		}
+	}
+
+	/**
+	 * @return null if the temp file can not be created, the writing mark is
+	 *         released
+	 */
+	private Editor openEditor(File cacheFile) {
+		try {
+			return new Editor(cacheFile);
+		} catch (IOException e) {
+			releaseWriting(cacheFile.getName());
+			return null;
+		}
+	}
+
+	/**
+	 * Write a cache file through a temp file, it is renamed to the cache file
+	 * when committed
+	 */
+	public final class Editor {
+		private final File mCacheFile;
+		private final File mTempFile;
+		private FileOutputStream mFileOutputStream;
+		private OutputStream mOutputStream;
+		private boolean mIsDone;
+
+		private Editor(File cacheFile) throws IOException {
+			mCacheFile = cacheFile;
+			mTempFile = new File(cacheFile.getParentFile(),
+					cacheFile.getName() + TEMP_FILE_SUFFIX);
+			if (mIsShardedLayout) {
+				cacheFile.getParentFile().mkdirs();
+			}
+			mFileOutputStream = new FileOutputStream(mTempFile);
+			mOutputStream = new BufferedOutputStream(mFileOutputStream);
+		}
+
+		public OutputStream getOutputStream() {
+			return mOutputStream;
+		}
+
+		/**
+		 * Publish the written file as the cache file
+		 * 
+		 * @return success or not
+		 */
+		public synchronized boolean commit() {
+			if (mIsDone) {
+				return false;
+			}
+			try {
+				mOutputStream.flush();
+				if (mIsSyncOnWrite) {
+					mFileOutputStream.getFD().sync();
+				}
+				mFileOutputStream.close();
+
+				if (!mTempFile.renameTo(mCacheFile)) {
+					throw new IOException("Can not rename to the cache file");
+				}
+				recordWrite(mCacheFile.getName(), mCacheFile.length());
+				return true;
+			} catch (IOException e) {
+				return false;
+			} finally {
+				release();
+			}
+		}
+
+		/**
+		 * Discard the written file, do nothing if it has been committed
+		 */
+		public synchronized void abort() {
+			if (!mIsDone) {
+				release();
+			}
+		}
+
+		private void release() {
+			mIsDone = true;
+			Utils.closeQuietly(mFileOutputStream);
+			mTempFile.delete();
+			releaseWriting(mCacheFile.getName());
+		}
+	}
+
+	/**
+	 * Check whether the cached file is being written
+	 * 
+	 * @param cacheIdentifier
+	 * @return
+	 */
+	public boolean isWriting(String cacheIdentifier) {
+		final String cacheFileName = createCacheFile(cacheIdentifier)
+				.getName();
+		synchronized (mWritingFiles) {
+			return mWritingFiles.containsKey(cacheFileName);
+		}
+	}
+
+	/**
+	 * Wait for the in-flight writer of the cached file
+	 * 
+	 * @param cacheIdentifier
+	 * @param timeoutMillis
+	 * @return true if the cached file exists after wait
+	 * @throws InterruptedException
+	 */
+	public boolean waitForWriting(String cacheIdentifier, long timeoutMillis)
+			throws InterruptedException {
+		File cacheFile = createCacheFile(cacheIdentifier);
+		CountDownLatch writingLatch;
+		synchronized (mWritingFiles) {
+			writingLatch = mWritingFiles.get(cacheFile.getName());
+		}
+		if (null != writingLatch
+				&& !writingLatch.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+			return false;
+		}
+		return cacheFile.exists();
+	}
+
 	/**
 	 * Read a cached file
 	 * 
 	 * @param cacheIdentifier
 	 * @return Cache file's {@link InputStream}
 	 */
-	public InputStream readCacheFile(String cacheIdentifier) {
+	public FileInputStream readCacheFile(String cacheIdentifier) {
+		File cacheFile = resolveCacheFile(cacheIdentifier);
 		try {
-			return new FileInputStream(createCacheFile(cacheIdentifier));
+			FileInputStream inputStream = new FileInputStream(cacheFile);
+			recordRead(cacheFile);
+			return inputStream;
 		} catch (FileNotFoundException e) {
 		}
 		return null;
@@ -158,7 +573,7 @@ public class FileCacheManager {
 	 * @return
 	 */
 	public boolean hasCacheFile(String cacheIdentifier) {
-		File cacheFile = createCacheFile(cacheIdentifier);
+		File cacheFile = resolveCacheFile(cacheIdentifier);
 		return hasCacheFile(cacheFile);
 	}
 
@@ -179,27 +594,553 @@ public class FileCacheManager {
 	 * @return
 	 */
 	public boolean deleteCache(String cacheIdentifier) {
-		File cacheFile = createCacheFile(cacheIdentifier);
+		File cacheFile = resolveCacheFile(cacheIdentifier);
 		boolean isExists = hasCacheFile(cacheFile);
 
 		boolean isDelete = cacheFile.delete();
+		deleteVariantFiles(recordRemove(cacheFile.getName()));
 
 		return isExists && isDelete;
 	}
 
 	/**
-	 * Clear all cached files
+	 * Open a variant of the cached file to write, such as a downsampled copy
+	 * of the image. The variant is evicted with the original file
 	 * 
+	 * @param cacheIdentifier
+	 *            identifier of the original file
+	 * @param variant
+	 *            name of the variant, letters and digits only
+	 * @return null if the original file is not cached, or the variant is
+	 *         being written
+	 * @see #edit(String)
+	 */
+	public Editor editVariant(String cacheIdentifier, String variant) {
+		File cacheFile = resolveCacheFile(cacheIdentifier);
+		if (!cacheFile.exists()) {
+			return null;
+		}
+		File variantFile = getVariantFile(cacheFile, variant);
+		if (null != acquireWriting(variantFile.getName())) {
+			return null;
+		}
+		return openEditor(variantFile);
+	}
+
+	/**
+	 * Read a variant of the cached file, the original file is treated as
+	 * used too
+	 * 
+	 * @param cacheIdentifier
+	 *            identifier of the original file
+	 * @param variant
+	 * @return null if the variant is not cached
+	 */
+	public FileInputStream readVariantFile(String cacheIdentifier,
+			String variant) {
+		File cacheFile = createCacheFile(cacheIdentifier);
+		File variantFile = getVariantFile(cacheFile, variant);
+		try {
+			FileInputStream inputStream = new FileInputStream(variantFile);
+			recordRead(variantFile);
+			if (cacheFile.exists()) {
+				recordRead(cacheFile);
+			}
+			return inputStream;
+		} catch (FileNotFoundException e) {
+		}
+		return null;
+	}
+
+	/**
+	 * Check whether the variant of the cached file exist
+	 * 
+	 * @param cacheIdentifier
+	 * @param variant
 	 * @return
 	 */
+	public boolean hasVariantFile(String cacheIdentifier, String variant) {
+		return getVariantFile(createCacheFile(cacheIdentifier), variant)
+				.exists();
+	}
+
+	private File getVariantFile(File cacheFile, String variant) {
+		if (null == variant || variant.length() <= 0
+				|| TEMP_FILE_SUFFIX.equals(VARIANT_SEPARATOR + variant)) {
+			throw new IllegalArgumentException("Invalid variant: " + variant);
+		}
+		for (int index = 0; index < variant.length(); index++) {
+			if (!Character.isLetterOrDigit(variant.charAt(index))) {
+				throw new IllegalArgumentException("Invalid variant: "
+						+ variant);
+			}
+		}
+		// in the same directory of the original file
+		return new File(cacheFile.getParentFile(), cacheFile.getName()
+				+ VARIANT_SEPARATOR + variant);
+	}
+
+	private void deleteVariantFiles(List<String> variantNames) {
+		for (String variantName : variantNames) {
+			File variantFile = getCacheFileByName(variantName);
+			if (!variantFile.delete() && variantFile.exists()) {
+				Log.d(LOG_TAG, "Can not delete cache file: " + variantName);
+			}
+		}
+	}
+
+	/**
+	 * Clear all cached files, the cache directory will be kept for the later
+	 * use
+	 * 
+	 * @return true if all the files has been deleted
+	 */
 	public boolean clearAllCaches() {
-		File[] files = mCacheFileDirectory.listFiles();
+		synchronized (mJournalLock) {
+			closeJournal();
+			return deleteFiles(mCacheFileDirectory, 0);
+		}
+	}
+
+	/**
+	 * Delete the files in the directory and the shard directories in it
+	 */
+	private boolean deleteFiles(File directory, int depth) {
+		boolean isAllDeleted = true;
+		File[] files = directory.listFiles();
+		if (null == files) {
+			return isAllDeleted;
+		}
 		for (File file : files) {
 			if (!file.isDirectory()) {
+				isAllDeleted &= file.delete();
+			} else if (depth < SHARD_DEPTH && isShardDirectory(file)) {
+				isAllDeleted &= deleteFiles(file, depth + 1) && file.delete();
+			}
+		}
+		return isAllDeleted;
+	}
+
+	/**
+	 * Delete the least recently used files until the cache size and count
+	 * are both in the limit. This method will block, see
+	 * {@link #setMaxCacheSize(long)} for the background trim
+	 */
+	public void trimToSize() {
+		final long maxCacheSize = mMaxCacheSize;
+		final int maxCacheCount = mMaxCacheCount;
+		while (true) {
+			// delete with the journal lock held, the file committed after
+			// the entry removed will not be deleted
+			synchronized (mJournalLock) {
+				mIsTrimScheduled = false;
+				loadJournal();
+				if (!isOverLimit(maxCacheSize, maxCacheCount)) {
+					return;
+				}
+				String eldest = findEldestIdleEntry();
+				if (null == eldest) {
+					// trimmed again when the writers recorded
+					return;
+				}
+				File eldestFile = getCacheFileByName(eldest);
+				if (!eldestFile.delete() && eldestFile.exists()) {
+					Log.d(LOG_TAG, "Can not delete cache file: " + eldest);
+				}
+				deleteVariantFiles(removeEntry(eldest));
+			}
+		}
+	}
+
+	/**
+	 * Find the least recently used entry whose file and variants are not
+	 * being written, must be called with the journal lock held
+	 * 
+	 * @return null if all the entries are being written
+	 */
+	private String findEldestIdleEntry() {
+		synchronized (mWritingFiles) {
+			for (String cacheFileName : mEntries.keySet()) {
+				if (mWritingFiles.containsKey(cacheFileName)) {
+					continue;
+				}
+				boolean isVariantWriting = false;
+				List<String> variantNames = mVariantNames.get(cacheFileName);
+				if (null != variantNames) {
+					for (String variantName : variantNames) {
+						isVariantWriting |= mWritingFiles
+								.containsKey(variantName);
+					}
+				}
+				if (!isVariantWriting) {
+					return cacheFileName;
+				}
+			}
+			return null;
+		}
+	}
+
+	private boolean isOverLimit(long maxCacheSize, int maxCacheCount) {
+		return (maxCacheSize > 0 && mCacheSize > maxCacheSize)
+				|| (maxCacheCount > 0 && mEntries.size() > maxCacheCount);
+	}
+
+	private void scheduleTrim() {
+		synchronized (mJournalLock) {
+			if (mIsTrimScheduled || (mMaxCacheSize <= 0 && mMaxCacheCount <= 0)) {
+				return;
+			}
+			mIsTrimScheduled = true;
+		}
+		sTrimExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				trimToSize();
+			}
+		});
+	}
+
+	private void recordWrite(String cacheFileName, long length) {
+		synchronized (mJournalLock) {
+			loadJournal();
+			Long oldLength = mEntries.put(cacheFileName, length);
+			if (null != oldLength) {
+				mCacheSize -= oldLength;
+			} else {
+				indexVariant(cacheFileName);
+			}
+			mCacheSize += length;
+			appendJournal(JOURNAL_WRITE + ' ' + cacheFileName + ' ' + length,
+					true);
+		}
+		scheduleTrim();
+	}
+
+	private void recordRead(File cacheFile) {
+		synchronized (mJournalLock) {
+			loadJournal();
+			if (null != mEntries.get(cacheFile.getName())) {
+				appendJournal(JOURNAL_READ + ' ' + cacheFile.getName(), false);
+				return;
+			}
+		}
+		// written by other instance, track it from now on
+		recordWrite(cacheFile.getName(), cacheFile.length());
+	}
+
+	/**
+	 * @return the names of the variants removed with the file, their files
+	 *         should be deleted by the caller
+	 */
+	private List<String> recordRemove(String cacheFileName) {
+		synchronized (mJournalLock) {
+			loadJournal();
+			return removeEntry(cacheFileName);
+		}
+	}
+
+	/**
+	 * Must be called with the journal lock held
+	 * 
+	 * @return the names of the variants removed with the file, their files
+	 *         should be deleted by the caller
+	 */
+	private List<String> removeEntry(String cacheFileName) {
+		Long length = mEntries.remove(cacheFileName);
+		if (null != length) {
+			mCacheSize -= length;
+			appendJournal(JOURNAL_REMOVE + ' ' + cacheFileName, true);
+		}
+
+		int separatorIndex = cacheFileName.indexOf(VARIANT_SEPARATOR);
+		if (separatorIndex > 0) {
+			List<String> variantNames = mVariantNames.get(cacheFileName
+					.substring(0, separatorIndex));
+			if (null != variantNames) {
+				variantNames.remove(cacheFileName);
+			}
+			return Collections.emptyList();
+		}
+
+		List<String> variantNames = mVariantNames.remove(cacheFileName);
+		if (null == variantNames) {
+			return Collections.emptyList();
+		}
+		for (String variantName : variantNames) {
+			length = mEntries.remove(variantName);
+			if (null != length) {
+				mCacheSize -= length;
+				appendJournal(JOURNAL_REMOVE + ' ' + variantName, true);
+			}
+		}
+		return variantNames;
+	}
+
+	/**
+	 * Track the variant by its original file, must be called with the journal
+	 * lock held
+	 */
+	private void indexVariant(String cacheFileName) {
+		int separatorIndex = cacheFileName.indexOf(VARIANT_SEPARATOR);
+		if (separatorIndex <= 0) {
+			return;
+		}
+		String originalName = cacheFileName.substring(0, separatorIndex);
+		List<String> variantNames = mVariantNames.get(originalName);
+		if (null == variantNames) {
+			variantNames = new ArrayList<String>(2);
+			mVariantNames.put(originalName, variantNames);
+		}
+		variantNames.add(cacheFileName);
+	}
+
+	/**
+	 * Load the entries from journal if they have not been loaded, must be
+	 * called with the journal lock held
+	 */
+	private void loadJournal() {
+		if (null != mEntries) {
+			return;
+		}
+		readEntries();
+
+		mVariantNames = new HashMap<String, List<String>>();
+		for (String cacheFileName : mEntries.keySet()) {
+			indexVariant(cacheFileName);
+		}
+	}
+
+	private void readEntries() {
+		mEntries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		mCacheSize = 0;
+
+		File journalFile = new File(mCacheFileDirectory, JOURNAL_FILE_NAME);
+		if (journalFile.exists()) {
+			try {
+				boolean isShardedJournal = readJournal(journalFile);
+				if (isShardedJournal != mIsShardedLayout) {
+					migrateLayout(isShardedJournal);
+					rewriteJournal();
+					return;
+				}
+				mJournalWriter = new BufferedWriter(new FileWriter(
+						journalFile, true));
+				return;
+			} catch (IOException e) {
+				Log.d(LOG_TAG, "Broken journal, rebuild it from the directory");
+				mEntries.clear();
+				mCacheSize = 0;
+			}
+		}
+
+		rebuildEntries();
+		rewriteJournal();
+	}
+
+	/**
+	 * @return whether the journal is written in sharded layout
+	 */
+	private boolean readJournal(File journalFile) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(journalFile));
+		try {
+			boolean isShardedJournal = false;
+			int lineCount = 0;
+			String line;
+			while (null != (line = reader.readLine())) {
+				lineCount++;
+				String[] parts = line.split(" ");
+				if (JOURNAL_LAYOUT.equals(parts[0]) && 2 == parts.length) {
+					isShardedJournal = LAYOUT_SHARDED.equals(parts[1]);
+				} else if (JOURNAL_WRITE.equals(parts[0]) && 3 == parts.length) {
+					Long oldLength = mEntries.put(parts[1],
+							Long.parseLong(parts[2]));
+					mCacheSize += Long.parseLong(parts[2])
+							- (null == oldLength ? 0 : oldLength);
+				} else if (JOURNAL_READ.equals(parts[0]) && 2 == parts.length) {
+					mEntries.get(parts[1]);
+				} else if (JOURNAL_REMOVE.equals(parts[0])
+						&& 2 == parts.length) {
+					Long length = mEntries.remove(parts[1]);
+					mCacheSize -= null == length ? 0 : length;
+				} else {
+					throw new IOException("Unexpected journal line: " + line);
+				}
+			}
+			mRedundantOperationCount = lineCount - mEntries.size();
+			return isShardedJournal;
+		} catch (NumberFormatException e) {
+			throw new IOException("Unexpected journal length");
+		} finally {
+			Utils.closeQuietly(reader);
+		}
+	}
+
+	/**
+	 * Track the files in the directory, which may be cached before the
+	 * journal exists. Use the last modified time as the access order. Only
+	 * the files named like a cache key are adopted, the others are not
+	 * touched
+	 */
+	private void rebuildEntries() {
+		List<File> files = new ArrayList<File>();
+		listCacheFiles(mCacheFileDirectory, 0, files);
+		Collections.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				long lhsModified = lhs.lastModified();
+				long rhsModified = rhs.lastModified();
+				return lhsModified < rhsModified ? -1
+						: (lhsModified == rhsModified ? 0 : 1);
+			}
+		});
+		for (File file : files) {
+			final String name = file.getName();
+			if (!isCacheFileName(name)) {
+				continue;
+			}
+			if (name.endsWith(TEMP_FILE_SUFFIX)) {
+				// left by the writer which was killed
 				file.delete();
+				continue;
+			}
+			if (!JOURNAL_FILE_NAME.equals(name)) {
+				// move the file to the location of current layout
+				File cacheFile = getCacheFileByName(name);
+				if (!cacheFile.equals(file)) {
+					cacheFile.getParentFile().mkdirs();
+					if (!file.renameTo(cacheFile)) {
+						continue;
+					}
+				}
+				long length = cacheFile.length();
+				mEntries.put(name, length);
+				mCacheSize += length;
+			}
+		}
+	}
+
+	private void listCacheFiles(File directory, int depth, List<File> files) {
+		File[] children = directory.listFiles();
+		if (null == children) {
+			return;
+		}
+		for (File child : children) {
+			if (child.isFile()) {
+				files.add(child);
+			} else if (depth < SHARD_DEPTH && isShardDirectory(child)) {
+				listCacheFiles(child, depth + 1, files);
+			}
+		}
+	}
+
+	/**
+	 * Move the tracked files from the previous layout to current layout
+	 * 
+	 * @param fromShardedLayout
+	 *            whether the files are in sharded layout now
+	 */
+	private void migrateLayout(boolean fromShardedLayout) {
+		Iterator<Entry<String, Long>> iterator = mEntries.entrySet()
+				.iterator();
+		while (iterator.hasNext()) {
+			Entry<String, Long> entry = iterator.next();
+			final String name = entry.getKey();
+			File from = getCacheFileByName(name, fromShardedLayout);
+			File to = getCacheFileByName(name);
+			to.getParentFile().mkdirs();
+			if (!from.renameTo(to) && !to.exists()) {
+				mCacheSize -= entry.getValue();
+				iterator.remove();
+			}
+		}
+
+		if (fromShardedLayout) {
+			// remove the empty shard directories
+			File[] directories = mCacheFileDirectory.listFiles();
+			for (int index = 0; null != directories
+					&& index < directories.length; index++) {
+				if (isShardDirectory(directories[index])) {
+					deleteFiles(directories[index], 1);
+					directories[index].delete();
+				}
 			}
 		}
-		return mCacheFileDirectory.delete();
+	}
+
+	/**
+	 * Write a compact journal which contains current entries only
+	 */
+	private void rewriteJournal() {
+		Utils.closeQuietly(mJournalWriter);
+		mJournalWriter = null;
+
+		File journalFile = new File(mCacheFileDirectory, JOURNAL_FILE_NAME);
+		File tempJournalFile = new File(mCacheFileDirectory,
+				JOURNAL_FILE_NAME_TEMP);
+		Writer writer = null;
+		try {
+			writer = new BufferedWriter(new FileWriter(tempJournalFile));
+			writer.write(JOURNAL_LAYOUT + ' '
+					+ (mIsShardedLayout ? LAYOUT_SHARDED : LAYOUT_FLAT) + '\n');
+			for (Entry<String, Long> entry : mEntries.entrySet()) {
+				writer.write(JOURNAL_WRITE + ' ' + entry.getKey() + ' '
+						+ entry.getValue() + '\n');
+			}
+			writer.close();
+			writer = null;
+			if (!tempJournalFile.renameTo(journalFile)) {
+				throw new IOException("Can not rename the journal");
+			}
+			mJournalWriter = new BufferedWriter(new FileWriter(journalFile,
+					true));
+			mRedundantOperationCount = 0;
+		} catch (IOException e) {
+			// keep working without journal, the order will be rebuilt next
+			// time
+			Log.d(LOG_TAG, "Can not write journal: " + e.getMessage());
+			Utils.closeQuietly(writer);
+			journalFile.delete();
+		}
+	}
+
+	/**
+	 * Must be called with the journal lock held
+	 */
+	private void appendJournal(String line, boolean flush) {
+		if (null == mJournalWriter) {
+			return;
+		}
+		try {
+			mJournalWriter.write(line);
+			mJournalWriter.write('\n');
+			if (flush) {
+				mJournalWriter.flush();
+			}
+		} catch (IOException e) {
+			Log.d(LOG_TAG, "Can not append journal: " + e.getMessage());
+		}
+
+		if (++mRedundantOperationCount >= JOURNAL_REDUNDANT_THRESHOLD
+				&& mRedundantOperationCount >= mEntries.size()) {
+			rewriteJournal();
+		}
+	}
+
+	/**
+	 * Must be called with the journal lock held
+	 */
+	private void closeJournal() {
+		if (null != mJournalWriter) {
+			try {
+				mJournalWriter.flush();
+			} catch (IOException e) {
+			}
+			Utils.closeQuietly(mJournalWriter);
+			mJournalWriter = null;
+		}
+		mEntries = null;
+		mVariantNames = null;
+		mCacheSize = 0;
 	}
 
 	/**
@@ -215,8 +1156,92 @@ public class FileCacheManager {
 					"cacheIdentifier can not be null");
 		}
 
-		String cacheFileName = Utils.getUUID(cacheIdentifier).toString();
-		return new File(mCacheFileDirectory, cacheFileName);
+		String cacheFileName = mCacheKeyGenerator.generate(cacheIdentifier);
+		return getCacheFileByName(cacheFileName);
+	}
+
+	/**
+	 * Same as {@link #createCacheFile(String)}, but the file named by the
+	 * legacy rule will be renamed to current rule if it exists
+	 */
+	private File resolveCacheFile(String cacheIdentifier) {
+		File cacheFile = createCacheFile(cacheIdentifier);
+		final CacheKeyGenerator legacyCacheKeyGenerator = mLegacyCacheKeyGenerator;
+		if (null == legacyCacheKeyGenerator || cacheFile.exists()) {
+			return cacheFile;
+		}
+
+		File legacyCacheFile = getCacheFileByName(legacyCacheKeyGenerator
+				.generate(cacheIdentifier));
+		if (legacyCacheFile.equals(cacheFile) || !legacyCacheFile.exists()) {
+			return cacheFile;
+		}
+
+		cacheFile.getParentFile().mkdirs();
+		if (legacyCacheFile.renameTo(cacheFile)) {
+			recordRemove(legacyCacheFile.getName());
+			recordWrite(cacheFile.getName(), cacheFile.length());
+		}
+		return cacheFile;
+	}
+
+	private File getCacheFileByName(String cacheFileName) {
+		return getCacheFileByName(cacheFileName, mIsShardedLayout);
+	}
+
+	private File getCacheFileByName(String cacheFileName, boolean shardedLayout) {
+		if (!shardedLayout || cacheFileName.length() < SHARD_DEPTH) {
+			return new File(mCacheFileDirectory, cacheFileName);
+		}
+
+		File directory = mCacheFileDirectory;
+		for (int depth = 0; depth < SHARD_DEPTH; depth++) {
+			directory = new File(directory, cacheFileName.substring(depth,
+					depth + 1));
+		}
+		return new File(directory, cacheFileName);
+	}
+
+	/**
+	 * Whether the name is a cache key generated by {@link CacheKeyGenerator},
+	 * which is hex digits and '-' like the shard directories, followed by
+	 * the optional variant and temp suffix
+	 */
+	private static boolean isCacheFileName(String name) {
+		final int length = name.length();
+		int index = 0;
+		while (index < length
+				&& (Character.digit(name.charAt(index), 16) >= 0 || '-' == name
+						.charAt(index))) {
+			index++;
+		}
+		if (0 == index) {
+			return false;
+		}
+
+		// at most the variant and the temp suffix
+		int suffixCount = 0;
+		while (index < length) {
+			if (VARIANT_SEPARATOR != name.charAt(index) || ++suffixCount > 2) {
+				return false;
+			}
+			int suffixStart = ++index;
+			while (index < length
+					&& Character.isLetterOrDigit(name.charAt(index))) {
+				index++;
+			}
+			if (index == suffixStart) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isShardDirectory(File file) {
+		final String name = file.getName();
+		return 1 == name.length()
+				&& Character.digit(name.charAt(0), 16) >= 0
+				&& file.isDirectory();
 	}
 
 	public interface OnWriteListener {
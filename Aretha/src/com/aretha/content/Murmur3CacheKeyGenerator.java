@@ -0,0 +1,131 @@
+/* Copyright (c) 2011-2012 Tang Ke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aretha.content;
+
+/**
+ * A fast non-cryptographic {@link CacheKeyGenerator}, name the cache file by
+ * the 128 bits MurmurHash3 (x64 variant) of the identifier. The characters of
+ * the identifier are hashed directly as UTF-16 code units, no byte array will
+ * be allocated
+ * 
+ * @author Tank
+ */
+public class Murmur3CacheKeyGenerator implements CacheKeyGenerator {
+	private final static long C1 = 0x87c37b91114253d5L;
+	private final static long C2 = 0x4cf5ad432745937fL;
+	private final static char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final long mSeed;
+
+	public Murmur3CacheKeyGenerator() {
+		this(0);
+	}
+
+	/**
+	 * @param seed
+	 *            different seed generates different names
+	 */
+	public Murmur3CacheKeyGenerator(long seed) {
+		mSeed = seed;
+	}
+
+	@Override
+	public String generate(String cacheIdentifier) {
+		final int length = cacheIdentifier.length();
+		long h1 = mSeed;
+		long h2 = mSeed;
+
+		// 8 characters, 16 bytes per block
+		int index = 0;
+		for (; index + 8 <= length; index += 8) {
+			long k1 = getBlock(cacheIdentifier, index, 4);
+			long k2 = getBlock(cacheIdentifier, index + 4, 4);
+
+			h1 ^= mixK1(k1);
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+
+			h2 ^= mixK2(k2);
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		final int remaining = length - index;
+		if (remaining > 4) {
+			h2 ^= mixK2(getBlock(cacheIdentifier, index + 4, remaining - 4));
+		}
+		if (remaining > 0) {
+			h1 ^= mixK1(getBlock(cacheIdentifier, index,
+					Math.min(remaining, 4)));
+		}
+
+		h1 ^= length * 2L;
+		h2 ^= length * 2L;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix64(h1);
+		h2 = fmix64(h2);
+		h1 += h2;
+		h2 += h1;
+
+		char[] name = new char[32];
+		toHex(h1, name, 0);
+		toHex(h2, name, 16);
+		return new String(name);
+	}
+
+	/**
+	 * Pack the characters into a long in little endian
+	 */
+	private static long getBlock(String text, int offset, int count) {
+		long block = 0;
+		for (int index = count - 1; index >= 0; index--) {
+			block = (block << 16) | text.charAt(offset + index);
+		}
+		return block;
+	}
+
+	private static long mixK1(long k1) {
+		k1 *= C1;
+		k1 = Long.rotateLeft(k1, 31);
+		k1 *= C2;
+		return k1;
+	}
+
+	private static long mixK2(long k2) {
+		k2 *= C2;
+		k2 = Long.rotateLeft(k2, 33);
+		k2 *= C1;
+		return k2;
+	}
+
+	private static long fmix64(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	private static void toHex(long value, char[] output, int offset) {
+		for (int index = 15; index >= 0; index--) {
+			output[offset + index] = HEX_DIGITS[(int) (value & 0xf)];
+			value >>>= 4;
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/* Copyright (c) 2011-2012 Tang Ke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aretha.content;
+
+import java.util.UUID;
+
+import com.aretha.util.Utils;
+
+/**
+ * The original naming rule of {@link FileCacheManager}, name the cache file by
+ * the name based {@link UUID} of the identifier, which is the MD5 of it. Keep
+ * using it to read the files cached by the previous versions
+ * 
+ * @author Tank
+ */
+public class UUIDCacheKeyGenerator implements CacheKeyGenerator {
+
+	@Override
+	public String generate(String cacheIdentifier) {
+		return Utils.getUUID(cacheIdentifier).toString();
+	}
+}
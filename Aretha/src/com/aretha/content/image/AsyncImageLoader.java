@@ -14,34 +14,60 @@
  */
 package com.aretha.content.image;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URI;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapFactory.Options;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
-import android.os.ParcelFileDescriptor;
+import android.os.Process;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Choreographer;
 
 import com.aretha.content.CacheManager;
 import com.aretha.content.FileCacheManager;
 import com.aretha.content.FileCacheManager.OnWriteListener;
-import com.aretha.net.HttpConnectionHelper;
+import com.aretha.content.Murmur3CacheKeyGenerator;
+import com.aretha.content.UUIDCacheKeyGenerator;
+import com.aretha.content.image.loader.AssetImageLoader;
+import com.aretha.content.image.loader.ContentImageLoader;
+import com.aretha.content.image.loader.FileImageLoader;
+import com.aretha.content.image.loader.ImageLoader;
+import com.aretha.content.image.loader.ImageSource;
+import com.aretha.content.image.loader.RemoteImageLoader;
+import com.aretha.util.Utils;
 
 /**
  * Load remote image to local cache, then notify the UI thread, then read from
@@ -53,23 +79,105 @@ public class AsyncImageLoader {
 	private final static int STATUS_SUCCESS = 1 << 0;
 	private final static int STATUS_ERROR = 1 << 1;
 	private final static int STATUS_CANCEL = 1 << 2;
+	private final static int MSG_SCHEDULE_FRAME = 1 << 3;
+	private final static int MSG_DELIVER_BATCH = 1 << 4;
+
+	private final static int STAGE_READ_CACHE = 0;
+	private final static int STAGE_FETCH = 1;
+	private final static int STAGE_DECODE = 2;
+
+	/**
+	 * Priority of the image which is shown on the screen, it will be loaded
+	 * before others
+	 */
+	public final static int PRIORITY_VISIBLE = 2;
+
+	/**
+	 * Priority of the image which is going to be shown soon
+	 */
+	public final static int PRIORITY_PREFETCH = 1;
+
+	/**
+	 * Priority of the image which is not shown, such as the one scrolled off
+	 */
+	public final static int PRIORITY_BACKGROUND = 0;
+
+	/**
+	 * Default number of threads which download the image from network
+	 */
+	public final static int DEFAULT_NETWORK_POOL_SIZE = 3;
+
+	/**
+	 * Default number of threads which read and decode the cached image
+	 */
+	public final static int DEFAULT_DECODE_POOL_SIZE = 2;
+
+	private final static long KEEP_ALIVE_SECONDS = 60L;
+	private final static long WRITING_TIMEOUT_MILLIS = 30 * 1000L;
+
+	/**
+	 * Max bytes of the image header which can be read again when decode the
+	 * downloading stream
+	 */
+	private final static int STREAM_MARK_LIMIT = 64 * 1024;
+
+	private final static String VARIANT_PREFIX = "s";
+	private final static int VARIANT_QUALITY = 90;
+
+	/**
+	 * Delay of the batched delivery where {@link Choreographer} is not
+	 * available, about one frame
+	 */
+	private final static long FRAME_INTERVAL_MILLIS = 16L;
+
+	/**
+	 * Default max bytes of the cached image files
+	 */
+	public final static long DEFAULT_DISK_CACHE_SIZE = 50 * 1024 * 1024;
 
 	private final static String LOG_TAG = "AsyncImageLoader";
+	private final static String DIRECTORY_NAME = "images";
 	private Context mContext;
 
 	private static AsyncImageLoader mImageLoader;
 
 	private FileCacheManager mFileCacheManager;
+	private volatile BitmapMemoryCache mMemoryCache;
+	private volatile BitmapPool mBitmapPool;
+
+	private ExecutorService mNetworkExecutor;
+	private ExecutorService mDecodeExecutor;
+	private boolean mIsDefaultExecutor;
+	private AtomicLong mTaskSequence = new AtomicLong();
+	/**
+	 * the loading tasks by {@link ImageLoadingTask#key}
+	 */
+	private final ConcurrentHashMap<String, ImageLoadingTask> mTasks = new ConcurrentHashMap<String, ImageLoadingTask>();
+	/**
+	 * the pending requests of the targets, the value is used as a set
+	 */
+	private final ConcurrentHashMap<OnImageLoadListener, ConcurrentHashMap<ImageLoadRequest, Boolean>> mTargetRequests = new ConcurrentHashMap<OnImageLoadListener, ConcurrentHashMap<ImageLoadRequest, Boolean>>();
 
-	private ExecutorService mExecutor;
-	private volatile LinkedList<ImageLoadingTask> mTaskList;
+	private volatile boolean mIsPaused;
+	private volatile boolean mIsStreamingDecode;
+	private volatile boolean mIsVariantCacheEnabled;
+	private volatile boolean mIsBatchDelivery;
+	/**
+	 * the finished tasks waiting for the batched delivery
+	 */
+	private final ConcurrentLinkedQueue<ImageLoadingTask> mFinishedTasks = new ConcurrentLinkedQueue<ImageLoadingTask>();
+	private final AtomicBoolean mIsDeliveryScheduled = new AtomicBoolean();
+	private final ArrayList<ImageLoadingTask> mPausedTasks = new ArrayList<ImageLoadingTask>();
+	/**
+	 * the loaders of the image sources, the latest registered is tried first
+	 */
+	private final CopyOnWriteArrayList<ImageLoader> mImageLoaders = new CopyOnWriteArrayList<ImageLoader>();
 
 	private Handler mImageLoadedHandler;
 
-	private ReentrantReadWriteLock mMainLock = new ReentrantReadWriteLock();
-
 	private int mScreenWidth;
 	private int mScreenHeight;
+	private int mDensityDpi;
 
 	public static AsyncImageLoader getInstance(Context context) {
 		if (mImageLoader == null) {
@@ -80,17 +188,184 @@ public class AsyncImageLoader {
 
 	private AsyncImageLoader(Context context) {
 		mContext = context.getApplicationContext();
-		mFileCacheManager = new FileCacheManager(context);
-		mExecutor = Executors.newCachedThreadPool();
-		mTaskList = new LinkedList<ImageLoadingTask>();
+		mFileCacheManager = new FileCacheManager(context,
+				getCacheDirectory(context));
+		mFileCacheManager.setMaxCacheSize(DEFAULT_DISK_CACHE_SIZE);
+		// hash the url faster, the images cached by the previous versions
+		// will be renamed when they are read
+		mFileCacheManager.setCacheKeyGenerator(new Murmur3CacheKeyGenerator(),
+				new UUIDCacheKeyGenerator());
+		mMemoryCache = new BitmapMemoryCache(
+				BitmapMemoryCache.getDefaultMaxSize());
+		if (BitmapPool.isSupported()) {
+			mBitmapPool = new BitmapPool(BitmapPool.getDefaultMaxSize());
+			mMemoryCache.setBitmapPool(mBitmapPool);
+		}
+		mNetworkExecutor = newExecutor(DEFAULT_NETWORK_POOL_SIZE, "network");
+		mDecodeExecutor = newExecutor(DEFAULT_DECODE_POOL_SIZE, "decode");
+		mIsDefaultExecutor = true;
 		DisplayMetrics displayMetrics = context.getResources()
 				.getDisplayMetrics();
 		mScreenWidth = displayMetrics.widthPixels;
 		mScreenHeight = displayMetrics.heightPixels;
+		mDensityDpi = displayMetrics.densityDpi;
+		registerImageLoader(new RemoteImageLoader());
+		registerImageLoader(new ContentImageLoader());
+		registerImageLoader(new FileImageLoader());
+		registerImageLoader(new AssetImageLoader());
 		// will notify the main thread
 		mImageLoadedHandler = new ImageLoadHandler(context.getMainLooper());
 	}
 
+	/**
+	 * Create a bounded {@link ExecutorService} which serve the task of higher
+	 * priority first, then the latest submitted one, so the images just bound
+	 * to the screen will be loaded before the ones which has been scrolled
+	 * off
+	 * 
+	 * @param poolSize
+	 *            number of the worker threads
+	 * @return
+	 */
+	public static ExecutorService newExecutor(int poolSize) {
+		return newExecutor(poolSize, "worker");
+	}
+
+	private static ExecutorService newExecutor(int poolSize, String name) {
+		if (poolSize <= 0) {
+			throw new IllegalArgumentException("poolSize must be positive");
+		}
+		return new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS,
+				TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(11,
+						new TaskComparator()), new ImageLoaderThreadFactory(
+						name));
+	}
+
+	/**
+	 * Use the specified {@link ExecutorService} to download and decode the
+	 * images
+	 * 
+	 * @param executor
+	 */
+	public void setExecutor(ExecutorService executor) {
+		setExecutors(executor, executor);
+	}
+
+	/**
+	 * Use different {@link ExecutorService} to download and decode the images,
+	 * then the slow network will not block the decoding of cached image. The
+	 * executors created by {@link #newExecutor(int)} will serve the latest
+	 * request first
+	 * 
+	 * @param networkExecutor
+	 *            executor to download the image
+	 * @param decodeExecutor
+	 *            executor to read and decode the cached image
+	 */
+	public void setExecutors(ExecutorService networkExecutor,
+			ExecutorService decodeExecutor) {
+		if (null == networkExecutor || null == decodeExecutor) {
+			throw new IllegalArgumentException("executor can not be null");
+		}
+
+		if (mIsDefaultExecutor) {
+			mNetworkExecutor.shutdown();
+			mDecodeExecutor.shutdown();
+		}
+		mNetworkExecutor = networkExecutor;
+		mDecodeExecutor = decodeExecutor;
+		mIsDefaultExecutor = false;
+	}
+
+	/**
+	 * Get the {@link FileCacheManager} which store the downloaded images, use
+	 * it to limit the size of the disk cache
+	 * 
+	 * @return
+	 */
+	public FileCacheManager getFileCacheManager() {
+		return mFileCacheManager;
+	}
+
+	/**
+	 * Get the memory cache of the decoded {@link Bitmap}
+	 * 
+	 * @return null if the memory cache is disabled
+	 */
+	public BitmapMemoryCache getMemoryCache() {
+		return mMemoryCache;
+	}
+
+	/**
+	 * Replace the memory cache of the decoded {@link Bitmap}
+	 * 
+	 * @param memoryCache
+	 *            null to disable the memory cache
+	 */
+	public void setMemoryCache(BitmapMemoryCache memoryCache) {
+		if (null != memoryCache) {
+			memoryCache.setBitmapPool(mBitmapPool);
+		}
+		mMemoryCache = memoryCache;
+	}
+
+	/**
+	 * Get the pool of the reusable {@link Bitmap}
+	 * 
+	 * @return null if the bitmap reusing is disabled or not supported
+	 */
+	public BitmapPool getBitmapPool() {
+		return mBitmapPool;
+	}
+
+	/**
+	 * Replace the pool of the reusable {@link Bitmap}, which is fed by the
+	 * evictions from the memory cache and {@link #releaseBitmap(Bitmap)}
+	 * 
+	 * @param bitmapPool
+	 *            null to disable the bitmap reusing
+	 */
+	public void setBitmapPool(BitmapPool bitmapPool) {
+		if (!BitmapPool.isSupported()) {
+			return;
+		}
+		mBitmapPool = bitmapPool;
+		final BitmapMemoryCache memoryCache = mMemoryCache;
+		if (null != memoryCache) {
+			memoryCache.setBitmapPool(bitmapPool);
+		}
+	}
+
+	/**
+	 * Tell the loader the bitmap will not be drawn anymore. Every delivery of
+	 * {@link OnImageLoadListener#onLoadSuccess(Bitmap, String, boolean)}
+	 * holds a reference of the bitmap, the memory is reused by the next
+	 * decode once the memory cache and all the listeners released it
+	 * 
+	 * @param bitmap
+	 *            bitmap delivered by {@link OnImageLoadListener}
+	 * @return true if the reference is released, caller must not use it
+	 *         anymore
+	 */
+	public boolean releaseBitmap(Bitmap bitmap) {
+		final BitmapPool bitmapPool = mBitmapPool;
+		if (null == bitmapPool) {
+			return false;
+		}
+		return bitmapPool.release(bitmap);
+	}
+
+	/**
+	 * Hold a reference of the bitmap for the listener it will be delivered
+	 * to
+	 */
+	private void acquireBitmap(Bitmap bitmap) {
+		final BitmapPool bitmapPool = mBitmapPool;
+		if (null != bitmapPool) {
+			bitmapPool.acquire(bitmap);
+		}
+	}
+
 	/**
 	 * Add image load request
 	 * 
@@ -111,8 +386,58 @@ public class AsyncImageLoader {
 	 */
 	public void loadImage(Uri uri, int targetWidth, int targetHeight,
 			OnImageLoadListener listener, boolean readCacheIfExist) {
-		doLoadImage(obtainImageLoadingTask(uri, targetWidth, targetHeight,
-				listener, readCacheIfExist));
+		loadImage(uri, targetWidth, targetHeight, listener, readCacheIfExist,
+				PRIORITY_VISIBLE);
+	}
+
+	/**
+	 * Add image load request
+	 * 
+	 * @param uri
+	 * @param listener
+	 * @param readCache
+	 *            true read cache file if exist
+	 * @param priority
+	 *            one of {@link #PRIORITY_VISIBLE}, {@link #PRIORITY_PREFETCH}
+	 *            and {@link #PRIORITY_BACKGROUND}
+	 */
+	public void loadImage(Uri uri, int targetWidth, int targetHeight,
+			OnImageLoadListener listener, boolean readCacheIfExist,
+			int priority) {
+		loadImage(uri, targetWidth, targetHeight, null, listener,
+				readCacheIfExist, priority);
+	}
+
+	/**
+	 * Add image load request
+	 * 
+	 * @param uri
+	 * @param decodeOptions
+	 *            how to decode the image, null for
+	 *            {@link DecodeOptions#DEFAULT}
+	 * @param listener
+	 * @param readCache
+	 *            true read cache file if exist
+	 * @param priority
+	 *            one of {@link #PRIORITY_VISIBLE}, {@link #PRIORITY_PREFETCH}
+	 *            and {@link #PRIORITY_BACKGROUND}
+	 */
+	public void loadImage(Uri uri, int targetWidth, int targetHeight,
+			DecodeOptions decodeOptions, OnImageLoadListener listener,
+			boolean readCacheIfExist, int priority) {
+		if (null == uri || null == listener) {
+			return;
+		}
+		ImageLoadRequest request = obtainImageLoadRequest(targetWidth,
+				targetHeight, listener);
+		request.priority = priority;
+		if (null != decodeOptions) {
+			request.decodeOptions = decodeOptions;
+		}
+		if (readCacheIfExist && deliverFromMemoryCache(uri, request)) {
+			return;
+		}
+		doLoadImage(uri, request, readCacheIfExist);
 	}
 
 	/**
@@ -121,24 +446,182 @@ public class AsyncImageLoader {
 	 * @param listener
 	 */
 	public void loadImage(String url, OnImageLoadListener listener) {
+		loadImage(url, listener, PRIORITY_VISIBLE);
+	}
+
+	/**
+	 * @see #loadImage(Uri, int, int, OnImageLoadListener, boolean, int)
+	 * @param url
+	 * @param listener
+	 * @param priority
+	 */
+	public void loadImage(String url, OnImageLoadListener listener,
+			int priority) {
 		if (null == url || url.length() <= 0) {
 			return;
 		}
-		loadImage(Uri.parse(url), listener);
+		loadImage(Uri.parse(url), 0, 0, listener, true, priority);
+	}
+
+	/**
+	 * Stop starting new downloads and decodes, such as during a fling, so the
+	 * CPU is left to render. The loads in progress will go on, and the
+	 * bitmaps in memory cache are still delivered
+	 * 
+	 * @see #resume()
+	 * @see PauseOnScrollListener
+	 */
+	public void pause() {
+		mIsPaused = true;
+	}
+
+	/**
+	 * Start the loads queued during pause, by their priority
+	 * 
+	 * @see #pause()
+	 */
+	public void resume() {
+		ArrayList<ImageLoadingTask> tasks;
+		synchronized (mPausedTasks) {
+			mIsPaused = false;
+			tasks = new ArrayList<ImageLoadingTask>(mPausedTasks);
+			mPausedTasks.clear();
+		}
+
+		Collections.sort(tasks, new TaskComparator());
+		for (ImageLoadingTask task : tasks) {
+			if (!task.isCanceled) {
+				dispatch(task, task.stage);
+			}
+		}
+	}
+
+	public boolean isPaused() {
+		return mIsPaused;
+	}
+
+	/**
+	 * Decode the downloading image while it is being written to the cache
+	 * file, so the image is shown without reading the cache file again. The
+	 * image whose header can not be buffered, or the decoding failed, will
+	 * still be decoded from the cache file after downloaded
+	 * 
+	 * @param streamingDecode
+	 */
+	public void setStreamingDecode(boolean streamingDecode) {
+		mIsStreamingDecode = streamingDecode;
+	}
+
+	public boolean isStreamingDecode() {
+		return mIsStreamingDecode;
+	}
+
+	/**
+	 * Keep the task until {@link #resume()} if paused
+	 * 
+	 * @return true if the task is kept
+	 */
+	private boolean parkIfPaused(ImageLoadingTask task) {
+		if (!mIsPaused) {
+			return false;
+		}
+		synchronized (mPausedTasks) {
+			if (!mIsPaused) {
+				return false;
+			}
+			for (ImageLoadingTask pausedTask : mPausedTasks) {
+				if (pausedTask == task) {
+					return true;
+				}
+			}
+			mPausedTasks.add(task);
+			return true;
+		}
+	}
+
+	/**
+	 * Change the priority of the pending requests of the target, such as
+	 * promote the view scrolled into the screen, or demote the one scrolled
+	 * off. The request in progress will not be interrupted
+	 * 
+	 * @param target
+	 *            the listener passed to load the image
+	 * @param priority
+	 *            one of {@link #PRIORITY_VISIBLE}, {@link #PRIORITY_PREFETCH}
+	 *            and {@link #PRIORITY_BACKGROUND}
+	 */
+	public void setPriority(OnImageLoadListener target, int priority) {
+		if (null == target) {
+			return;
+		}
+		ConcurrentHashMap<ImageLoadRequest, Boolean> requests = mTargetRequests
+				.get(target);
+		if (null == requests) {
+			return;
+		}
+		for (ImageLoadRequest request : requests.keySet()) {
+			if (request.priority != priority) {
+				request.priority = priority;
+				reschedule(request.task);
+			}
+		}
 	}
 
 	/**
-	 * Cancel a image load request before is was been execute. if you want to
-	 * cancel it in progress, please see {@link OnImageLoadListener}
+	 * Cancel all the image load requests of the uri. The download and decode
+	 * in progress will be stopped, and no listener will be notified
 	 * 
 	 * @param uri
 	 */
 	public void cancel(Uri uri) {
-		Lock lock = mMainLock.writeLock();
-		ImageLoadingTask task = obtainImageLoadingTask(uri, 0, 0, null, false);
-		lock.lock();
-		mTaskList.remove(task);
-		lock.unlock();
+		if (null == uri) {
+			return;
+		}
+		cancelTask(generateTaskKey(uri, true));
+		cancelTask(generateTaskKey(uri, false));
+	}
+
+	private void cancelTask(String key) {
+		ImageLoadingTask task = mTasks.remove(key);
+		if (null == task) {
+			return;
+		}
+		for (ImageLoadRequest request : task.getRequests()) {
+			unregisterRequest(request);
+		}
+		task.abort();
+	}
+
+	/**
+	 * Cancel the image load requests of the target, such as a view which is
+	 * going to display another image. If no other target is waiting for the
+	 * same image, the download and decode in progress will be stopped
+	 * 
+	 * @param target
+	 *            the listener passed to load the image
+	 */
+	public void cancel(OnImageLoadListener target) {
+		if (null == target) {
+			return;
+		}
+		ConcurrentHashMap<ImageLoadRequest, Boolean> requests = mTargetRequests
+				.remove(target);
+		if (null == requests) {
+			return;
+		}
+		for (ImageLoadRequest request : requests.keySet()) {
+			final ImageLoadingTask task = request.task;
+			if (null == task) {
+				// not attached yet
+				continue;
+			}
+			if (task.removeRequest(request)) {
+				removeTask(task);
+				task.abort();
+			} else {
+				reschedule(task);
+			}
+		}
 	}
 
 	/**
@@ -153,116 +636,640 @@ public class AsyncImageLoader {
 	}
 
 	/**
-	 * Generate the load task
+	 * Generate the load request of one listener
 	 * 
-	 * @param uri
+	 * @param width
+	 * @param height
 	 * @param listener
-	 * @param readCacheIfExist
 	 * @return
 	 */
-	private ImageLoadingTask obtainImageLoadingTask(Uri uri, int width,
-			int height, OnImageLoadListener listener, boolean readCacheIfExist) {
-		if (null == uri || null == listener) {
-			return null;
-		}
-		ImageLoadingTask task = new ImageLoadingTask();
-		task.listener = listener;
-		task.uri = uri;
-		task.targetWidth = width <= 0 ? mScreenWidth : width;
-		task.targetHeight = height <= 0 ? mScreenHeight : height;
-		task.readCacheIfExist = readCacheIfExist;
-		return task;
+	private ImageLoadRequest obtainImageLoadRequest(int width, int height,
+			OnImageLoadListener listener) {
+		ImageLoadRequest request = new ImageLoadRequest();
+		request.listener = listener;
+		request.targetWidth = width <= 0 ? mScreenWidth : width;
+		request.targetHeight = height <= 0 ? mScreenHeight : height;
+		return request;
 	}
 
 	/**
-	 * Execute the load action
+	 * The images are stored in their own directory, the trim of the disk
+	 * cache will not delete the other files of the application
 	 */
-	private void doLoadImage(ImageLoadingTask imageLoadingTask) {
-		if (null == imageLoadingTask) {
-			return;
+	private static File getCacheDirectory(Context context) {
+		final File externalCacheDir = context.getExternalCacheDir();
+		if (null != externalCacheDir) {
+			File directory = new File(externalCacheDir, DIRECTORY_NAME);
+			if (directory.mkdirs() || directory.isDirectory()) {
+				return directory;
+			}
 		}
-
-		mTaskList.add(imageLoadingTask);
-		mExecutor.execute(imageLoadingTask);
+		File directory = new File(context.getCacheDir(), DIRECTORY_NAME);
+		directory.mkdirs();
+		return directory;
 	}
 
 	/**
-	 * Save the image {@link InputStream}
+	 * Look up the memory cache before any task queued
 	 * 
-	 * @param context
-	 * @param imageIdentifier
-	 * @param inputstream
-	 * @return
+	 * @return true if the bitmap is found in memory cache
 	 */
-	public boolean saveBitmapStream(String imageIdentifier,
-			InputStream inputStream) {
-		return saveBitmapStream(imageIdentifier, inputStream, null);
+	private boolean deliverFromMemoryCache(Uri uri,
+			final ImageLoadRequest request) {
+		final BitmapMemoryCache memoryCache = mMemoryCache;
+		if (null == memoryCache) {
+			return false;
+		}
+
+		final String imageUrl = uri.toString();
+		final Bitmap bitmap = memoryCache.acquire(BitmapMemoryCache
+				.generateKey(imageUrl, request.targetWidth,
+						request.targetHeight, request.decodeOptions));
+		if (null == bitmap) {
+			return false;
+		}
+
+		if (Looper.myLooper() == mImageLoadedHandler.getLooper()) {
+			// on the main thread already, show it before the next frame
+			request.listener.onLoadSuccess(bitmap, imageUrl, true);
+			return true;
+		}
+		mImageLoadedHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				request.listener.onLoadSuccess(bitmap, imageUrl, true);
+			}
+		});
+		return true;
 	}
 
 	/**
-	 * Save the image {@link InputStream}
-	 * 
-	 * @param imageIdentifier
-	 * @param inputStream
-	 * @param onWriteListener
-	 * @return
+	 * Put the decoded bitmap into memory cache
 	 */
-	public boolean saveBitmapStream(String imageIdentifier,
-			InputStream inputStream, OnWriteListener onWriteListener) {
-		return mFileCacheManager.writeCacheFile(imageIdentifier, inputStream,
-				onWriteListener);
+	private void putMemoryCache(String imageUrl, ImageLoadRequest request) {
+		final BitmapMemoryCache memoryCache = mMemoryCache;
+		if (null == memoryCache || null == request.bitmap) {
+			return;
+		}
+		memoryCache.putBitmap(BitmapMemoryCache.generateKey(imageUrl,
+				request.targetWidth, request.targetHeight,
+				request.decodeOptions), request.bitmap);
 	}
 
 	/**
-	 * According imageIdentifier to get cached {@link Bitmap} If the
-	 * {@link OutOfMemoryError} occur. method will reduce the quality of
-	 * {@link Bitmap}
-	 * 
-	 * @see CacheManager
-	 * 
-	 * @param imageIdentifier
-	 * @param sampleSize
-	 *            If set to a value > 1, requests the decoder to sub sample the
-	 *            original image, returning a smaller image to save memory.
-	 * @return The cached bitmap, or null not found.
+	 * Execute the load action, if the same uri is loading, the request will
+	 * share the download and decode of the loading one
 	 */
-	public Bitmap readCachedBitmap(String imageIdentifier, int targetWidth,
-			int targetHeight) {
-		InputStream inputStream = mFileCacheManager
-				.readCacheFile(imageIdentifier);
+	private void doLoadImage(Uri uri, ImageLoadRequest request,
+			boolean readCacheIfExist) {
+		registerRequest(request);
+		final String key = generateTaskKey(uri, readCacheIfExist);
+		while (true) {
+			ImageLoadingTask task = mTasks.get(key);
+			if (null != task) {
+				if (task.addRequest(request)) {
+					// the shared task may be promoted by this request
+					reschedule(task);
+					return;
+				}
+				// finished but not removed yet
+				mTasks.remove(key, task);
+				continue;
+			}
 
-		if (inputStream == null) {
-			return null;
+			task = new ImageLoadingTask();
+			task.key = key;
+			task.uri = uri;
+			task.readCacheIfExist = readCacheIfExist;
+			task.sequence = mTaskSequence.incrementAndGet();
+			task.addRequest(request);
+			task.priority = task.computePriority();
+			if (null == mTasks.putIfAbsent(key, task)) {
+				dispatch(task, STAGE_READ_CACHE);
+				return;
+			}
+			// another task of the same key is added, share it
 		}
+	}
 
-		Options decodeOptions = new Options();
-		decodeOptions.inJustDecodeBounds = true;
-		BitmapFactory.decodeStream(inputStream, null, decodeOptions);
-		int factor = (int) Math.ceil(decodeOptions.outWidth * 1.0f
-				/ targetWidth);
-		factor = (int) Math.max(factor, decodeOptions.outHeight * 1.0f
-				/ targetHeight);
-		Log.d(LOG_TAG, "Current image factor: " + factor);
-		decodeOptions.inJustDecodeBounds = false;
-		decodeOptions.inSampleSize = factor;
-		// the system can purge the space of Bitmap use automatically
-		decodeOptions.inPurgeable = true;
-		decodeOptions.inInputShareable = true;
-
-		return BitmapFactory.decodeStream(
-				mFileCacheManager.readCacheFile(imageIdentifier), null,
-				decodeOptions);
+	private static String generateTaskKey(Uri uri, boolean readCacheIfExist) {
+		return (readCacheIfExist ? '+' : '-') + uri.toString();
 	}
 
 	/**
-	 * The listener to listen the image load action
-	 * 
-	 * @author Tank
-	 * 
+	 * Track the request by its target, so it can be canceled by
+	 * {@link #cancel(OnImageLoadListener)}
+	 */
+	private void registerRequest(ImageLoadRequest request) {
+		final OnImageLoadListener target = request.listener;
+		while (true) {
+			ConcurrentHashMap<ImageLoadRequest, Boolean> requests = mTargetRequests
+					.get(target);
+			if (null == requests) {
+				requests = new ConcurrentHashMap<ImageLoadRequest, Boolean>(4);
+				ConcurrentHashMap<ImageLoadRequest, Boolean> existing = mTargetRequests
+						.putIfAbsent(target, requests);
+				if (null != existing) {
+					requests = existing;
+				}
+			}
+			requests.put(request, Boolean.TRUE);
+			// the set may be removed as empty at the same time
+			if (mTargetRequests.get(target) == requests) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Stop tracking the request which is done or dropped
+	 */
+	private void unregisterRequest(ImageLoadRequest request) {
+		final OnImageLoadListener target = request.listener;
+		ConcurrentHashMap<ImageLoadRequest, Boolean> requests = mTargetRequests
+				.get(target);
+		if (null != requests && null != requests.remove(request)
+				&& requests.isEmpty()) {
+			mTargetRequests.remove(target, requests);
+		}
+	}
+
+	/**
+	 * Remove the task from the registry, no more request can share it
+	 */
+	private void removeTask(ImageLoadingTask task) {
+		mTasks.remove(task.key, task);
+	}
+
+	/**
+	 * Update the priority of the task by its requests. If the task is queued,
+	 * queue it again with the new priority, the ticket queued before becomes
+	 * stale and will be skipped, the queue is never scanned
+	 */
+	private void reschedule(ImageLoadingTask task) {
+		if (null == task) {
+			return;
+		}
+		TaskTicket ticket;
+		synchronized (task) {
+			int priority = task.computePriority();
+			if (task.priority == priority) {
+				return;
+			}
+			task.priority = priority;
+			if (!task.isQueued()) {
+				// running or paused, take effect when dispatched next time
+				return;
+			}
+			ticket = task.newTicket();
+		}
+		execute(task, ticket);
+	}
+
+	private void dispatch(ImageLoadingTask task, int stage) {
+		task.stage = stage;
+		if (parkIfPaused(task)) {
+			return;
+		}
+		execute(task, task.newTicket());
+	}
+
+	private void execute(ImageLoadingTask task, TaskTicket ticket) {
+		try {
+			(STAGE_FETCH == task.stage ? mNetworkExecutor : mDecodeExecutor)
+					.execute(ticket);
+		} catch (RejectedExecutionException e) {
+			Log.d(LOG_TAG, "Image loading task rejected: " + task.uri);
+			task.finish(STATUS_ERROR);
+		}
+	}
+
+	/**
+	 * Save the image {@link InputStream}
+	 * 
+	 * @param context
+	 * @param imageIdentifier
+	 * @param inputstream
+	 * @return
+	 */
+	public boolean saveBitmapStream(String imageIdentifier,
+			InputStream inputStream) {
+		return saveBitmapStream(imageIdentifier, inputStream, null);
+	}
+
+	/**
+	 * Save the image {@link InputStream}
+	 * 
+	 * @param imageIdentifier
+	 * @param inputStream
+	 * @param onWriteListener
+	 * @return
+	 */
+	public boolean saveBitmapStream(String imageIdentifier,
+			InputStream inputStream, OnWriteListener onWriteListener) {
+		return mFileCacheManager.writeCacheFile(imageIdentifier, inputStream,
+				onWriteListener);
+	}
+
+	/**
+	 * According imageIdentifier to get cached {@link Bitmap}, the image will
+	 * be sub sampled by power of two to fit the target size, avoid
+	 * {@link OutOfMemoryError}. The cache file is opened only once, both the
+	 * bounds and the pixels are decoded from the same file descriptor. If
+	 * {@link #setVariantCacheEnabled(boolean)}, the downsampled copy is
+	 * decoded instead when it exists
+	 * 
+	 * @see CacheManager
+	 * 
+	 * @param imageIdentifier
+	 * @param targetWidth
+	 *            max width of the decoded bitmap
+	 * @param targetHeight
+	 *            max height of the decoded bitmap
+	 * @return The cached bitmap, or null not found.
+	 */
+	public Bitmap readCachedBitmap(String imageIdentifier, int targetWidth,
+			int targetHeight) {
+		return readCachedBitmap(imageIdentifier, targetWidth, targetHeight,
+				DecodeOptions.DEFAULT);
+	}
+
+	/**
+	 * Same as {@link #readCachedBitmap(String, int, int)}, decode the image
+	 * by the options
+	 * 
+	 * @param imageIdentifier
+	 * @param targetWidth
+	 * @param targetHeight
+	 * @param options
+	 * @return The cached bitmap, or null not found.
+	 */
+	public Bitmap readCachedBitmap(String imageIdentifier, int targetWidth,
+			int targetHeight, DecodeOptions options) {
+		FileInputStream inputStream = null;
+		try {
+			inputStream = mFileCacheManager.readCacheFile(imageIdentifier);
+			if (null == inputStream) {
+				return null;
+			}
+			// the position of descriptor will not be changed after decode, so
+			// it can be decoded again without reopen
+			FileDescriptor fileDescriptor = inputStream.getFD();
+			Options decodeOptions = decodeBounds(fileDescriptor);
+			if (null == decodeOptions) {
+				return null;
+			}
+
+			String variant = null;
+			// the exactly scaled bitmap is not a sub sampled copy
+			if (mIsVariantCacheEnabled && !options.isExactScaling()) {
+				int sampleSize = computeSampleSize(decodeOptions.outWidth,
+						decodeOptions.outHeight, targetWidth, targetHeight);
+				if (sampleSize > 1) {
+					variant = VARIANT_PREFIX + sampleSize;
+					Bitmap bitmap = readCachedVariant(imageIdentifier,
+							variant, targetWidth, targetHeight, options);
+					if (null != bitmap) {
+						return bitmap;
+					}
+				}
+			}
+
+			Bitmap bitmap = decodeFileDescriptor(fileDescriptor,
+					decodeOptions, targetWidth, targetHeight, options);
+			if (null != variant && null != bitmap) {
+				saveVariant(imageIdentifier, variant, bitmap);
+			}
+			return bitmap;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			Utils.closeQuietly(inputStream);
+		}
+	}
+
+	/**
+	 * Open the cached image to decode by tiles, for the image which is too
+	 * large to decode at once. Load the image by
+	 * {@link #loadImage(Uri, OnImageLoadListener)} first, which also give a
+	 * sub sampled preview
+	 * 
+	 * @param imageIdentifier
+	 * @return null if the image is not cached, can not be decoded, or
+	 *         {@link TiledImageDecoder#isSupported()} is false
+	 */
+	public TiledImageDecoder openTiledDecoder(String imageIdentifier) {
+		if (!TiledImageDecoder.isSupported()) {
+			return null;
+		}
+		FileInputStream inputStream = null;
+		try {
+			inputStream = mFileCacheManager.readCacheFile(imageIdentifier);
+			if (null == inputStream) {
+				return null;
+			}
+			// the decoder has its own copy of the descriptor
+			return TiledImageDecoder.newInstance(inputStream.getFD());
+		} catch (IOException e) {
+			return null;
+		} finally {
+			Utils.closeQuietly(inputStream);
+		}
+	}
+
+	/**
+	 * Keep the downsampled copies of the images in the disk cache, keyed by
+	 * the power of two sample size, so the thumbnails are decoded from the
+	 * small files instead of the originals. The copies are evicted with their
+	 * originals
+	 * 
+	 * @param variantCacheEnabled
+	 */
+	public void setVariantCacheEnabled(boolean variantCacheEnabled) {
+		mIsVariantCacheEnabled = variantCacheEnabled;
+	}
+
+	public boolean isVariantCacheEnabled() {
+		return mIsVariantCacheEnabled;
+	}
+
+	/**
+	 * Deliver the images finished in the same frame together, so the views
+	 * are laid out and drawn once instead of once per image. The delivery is
+	 * aligned to the next frame by {@link Choreographer} since Jelly Bean
+	 * 
+	 * @param batchDelivery
+	 */
+	public void setBatchDelivery(boolean batchDelivery) {
+		mIsBatchDelivery = batchDelivery;
+	}
+
+	public boolean isBatchDelivery() {
+		return mIsBatchDelivery;
+	}
+
+	/**
+	 * Load the images of another source, or replace the default loader of
+	 * http, content, file and asset. The loader registered later is tried
+	 * first
+	 * 
+	 * @param imageLoader
+	 */
+	public void registerImageLoader(ImageLoader imageLoader) {
+		if (null == imageLoader) {
+			return;
+		}
+		mImageLoaders.add(0, imageLoader);
+	}
+
+	public void unregisterImageLoader(ImageLoader imageLoader) {
+		mImageLoaders.remove(imageLoader);
+	}
+
+	/**
+	 * @return null if no loader can load the uri
+	 */
+	private ImageLoader findImageLoader(Uri uri) {
+		for (ImageLoader imageLoader : mImageLoaders) {
+			if (imageLoader.canLoad(uri)) {
+				return imageLoader;
+			}
+		}
+		return null;
+	}
+
+	private Bitmap readCachedVariant(String imageIdentifier, String variant,
+			int targetWidth, int targetHeight, DecodeOptions options) {
+		FileInputStream inputStream = null;
+		try {
+			inputStream = mFileCacheManager.readVariantFile(imageIdentifier,
+					variant);
+			if (null == inputStream) {
+				return null;
+			}
+			FileDescriptor fileDescriptor = inputStream.getFD();
+			Options decodeOptions = decodeBounds(fileDescriptor);
+			if (null == decodeOptions) {
+				return null;
+			}
+			return decodeFileDescriptor(fileDescriptor, decodeOptions,
+					targetWidth, targetHeight, options);
+		} catch (IOException e) {
+			return null;
+		} finally {
+			Utils.closeQuietly(inputStream);
+		}
+	}
+
+	/**
+	 * Save the downsampled bitmap as a variant of the cached image, JPEG for
+	 * the opaque one and PNG for the one with alpha
+	 */
+	private void saveVariant(String imageIdentifier, String variant,
+			Bitmap bitmap) {
+		FileCacheManager.Editor editor = mFileCacheManager.editVariant(
+				imageIdentifier, variant);
+		if (null == editor) {
+			return;
+		}
+		try {
+			CompressFormat format = bitmap.hasAlpha() ? CompressFormat.PNG
+					: CompressFormat.JPEG;
+			if (bitmap.compress(format, VARIANT_QUALITY,
+					editor.getOutputStream())) {
+				editor.commit();
+			}
+		} finally {
+			editor.abort();
+		}
+	}
+
+	/**
+	 * @return the options with bounds, null if the file is not an image
+	 */
+	private Options decodeBounds(FileDescriptor fileDescriptor) {
+		Options decodeOptions = new Options();
+		decodeOptions.inJustDecodeBounds = true;
+		BitmapFactory.decodeFileDescriptor(fileDescriptor, null,
+				decodeOptions);
+		if (decodeOptions.outWidth <= 0 || decodeOptions.outHeight <= 0) {
+			return null;
+		}
+		return decodeOptions;
+	}
+
+	private Bitmap decodeFileDescriptor(FileDescriptor fileDescriptor,
+			Options decodeOptions, int targetWidth, int targetHeight,
+			DecodeOptions options) {
+		prepareDecodeOptions(decodeOptions, targetWidth, targetHeight, options);
+		if (null != decodeOptions.inBitmap) {
+			try {
+				return finishDecode(BitmapFactory.decodeFileDescriptor(
+						fileDescriptor, null, decodeOptions), decodeOptions);
+			} catch (IllegalArgumentException e) {
+				// the pooled bitmap can not be reused, decode again with a new
+				// allocation
+				Log.d(LOG_TAG, "Can not reuse the pooled bitmap");
+				decodeOptions.inBitmap = null;
+			}
+		}
+		return finishDecode(BitmapFactory.decodeFileDescriptor(fileDescriptor,
+				null, decodeOptions), decodeOptions);
+	}
+
+	/**
+	 * The exactly scaled bitmap takes the target density as its density,
+	 * restore it or it will be scaled again when drawn
+	 */
+	private Bitmap finishDecode(Bitmap bitmap, Options decodeOptions) {
+		if (null != bitmap && 0 != decodeOptions.inDensity) {
+			bitmap.setDensity(mDensityDpi);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Decode the image from the stream which can be read only once, the
+	 * header is buffered to decode the bounds
+	 * 
+	 * @return null if the image can not be decoded from the stream
+	 */
+	private Bitmap decodeStream(InputStream inputStream, int targetWidth,
+			int targetHeight, DecodeOptions options) {
+		MarkableInputStream markableStream = new MarkableInputStream(
+				inputStream, STREAM_MARK_LIMIT);
+		Options decodeOptions = decodeBounds(markableStream);
+		if (null == decodeOptions) {
+			return null;
+		}
+
+		try {
+			markableStream.reset();
+		} catch (IOException e) {
+			// the header is larger than the mark limit
+			return null;
+		}
+		return decodeStream(markableStream, decodeOptions, targetWidth,
+				targetHeight, options);
+	}
+
+	/**
+	 * @return the options with the bounds of the image, null if the image
+	 *         can not be decoded
+	 */
+	private Options decodeBounds(InputStream inputStream) {
+		Options decodeOptions = new Options();
+		decodeOptions.inJustDecodeBounds = true;
+		BitmapFactory.decodeStream(inputStream, null, decodeOptions);
+		if (decodeOptions.outWidth <= 0 || decodeOptions.outHeight <= 0) {
+			return null;
+		}
+		return decodeOptions;
+	}
+
+	/**
+	 * Decode the stream from the beginning, the bounds of the image have
+	 * been decoded into the options
+	 */
+	private Bitmap decodeStream(InputStream inputStream,
+			Options decodeOptions, int targetWidth, int targetHeight,
+			DecodeOptions options) {
+		prepareDecodeOptions(decodeOptions, targetWidth, targetHeight, options);
+		try {
+			return finishDecode(BitmapFactory.decodeStream(inputStream, null,
+					decodeOptions), decodeOptions);
+		} catch (IllegalArgumentException e) {
+			// the pooled bitmap can not be reused, and the stream can not be
+			// decoded again
+			return null;
+		}
+	}
+
+	/**
+	 * Set the sample size, the config and the bitmap to reuse, the bounds of
+	 * the image must have been decoded into the options
+	 */
+	private void prepareDecodeOptions(Options decodeOptions, int targetWidth,
+			int targetHeight, DecodeOptions options) {
+		int sampleSize = computeSampleSize(decodeOptions.outWidth,
+				decodeOptions.outHeight, targetWidth, targetHeight);
+		Log.d(LOG_TAG, "Current image sample size: " + sampleSize);
+		decodeOptions.inJustDecodeBounds = false;
+		decodeOptions.inPreferredConfig = options.getPreferredConfig();
+
+		boolean isScaled = false;
+		if (options.isExactScaling() && sampleSize > 1) {
+			// sub sample to a little larger than the target, then scale it
+			// down to fit the target exactly
+			sampleSize >>= 1;
+			int sampledWidth = (decodeOptions.outWidth + sampleSize - 1)
+					/ sampleSize;
+			int sampledHeight = (decodeOptions.outHeight + sampleSize - 1)
+					/ sampleSize;
+			if ((long) sampledWidth * targetHeight >= (long) sampledHeight
+					* targetWidth) {
+				decodeOptions.inDensity = sampledWidth;
+				decodeOptions.inTargetDensity = targetWidth;
+			} else {
+				decodeOptions.inDensity = sampledHeight;
+				decodeOptions.inTargetDensity = targetHeight;
+			}
+			decodeOptions.inScaled = true;
+			isScaled = true;
+		}
+		decodeOptions.inSampleSize = sampleSize;
+
+		final BitmapPool bitmapPool = mBitmapPool;
+		if (null == bitmapPool) {
+			return;
+		}
+		// the decoded bitmap must be mutable, then it can be reused later
+		decodeOptions.inMutable = true;
+		if (isScaled) {
+			// the size of the scaled bitmap can not be matched before KitKat
+			return;
+		}
+		decodeOptions.inBitmap = bitmapPool.get(decodeOptions);
+	}
+
+	/**
+	 * Compute the smallest power of two sample size which make the image fit
+	 * the target size
+	 * 
+	 * @param width
+	 *            width of the original image
+	 * @param height
+	 *            height of the original image
+	 * @param targetWidth
+	 * @param targetHeight
+	 * @return
+	 */
+	public static int computeSampleSize(int width, int height,
+			int targetWidth, int targetHeight) {
+		int sampleSize = 1;
+		if (targetWidth <= 0 || targetHeight <= 0) {
+			return sampleSize;
+		}
+		while ((width + sampleSize - 1) / sampleSize > targetWidth
+				|| (height + sampleSize - 1) / sampleSize > targetHeight) {
+			sampleSize <<= 1;
+		}
+		return sampleSize;
+	}
+
+	/**
+	 * The listener to listen the image load action
+	 * 
+	 * @author Tank
+	 * 
 	 */
 	public interface OnImageLoadListener {
 		/**
-		 * Invoked when the image has been loaded
+		 * Invoked when the image has been loaded. If the image is found in
+		 * the memory cache when it is loaded on the main thread, this is
+		 * invoked before the load method returns. Call
+		 * {@link AsyncImageLoader#releaseBitmap(Bitmap)} once the bitmap is
+		 * not drawn anymore, or it will never be reused
 		 * 
 		 * @param bitmap
 		 * @param imageUrl
@@ -299,15 +1306,249 @@ public class AsyncImageLoader {
 				long totalLength);
 	}
 
-	private class ImageLoadingTask implements Runnable, OnWriteListener {
-		public Uri uri;
+	/**
+	 * One listener waiting for the image, the listeners with different target
+	 * size share the same {@link ImageLoadingTask}
+	 */
+	private static class ImageLoadRequest {
 		public OnImageLoadListener listener;
+		public int targetWidth;
+		public int targetHeight;
+		public DecodeOptions decodeOptions = DecodeOptions.DEFAULT;
 		public Bitmap bitmap;
+		public boolean isPreLoadChecked;
+		public volatile int priority = PRIORITY_VISIBLE;
+		public ImageLoadingTask task;
+	}
+
+	private class ImageLoadingTask implements Runnable, OnWriteListener {
+		public String key;
+		public Uri uri;
 		public boolean isLoadFromCache;
 		public boolean readCacheIfExist;
 		public long totleBytes;
-		public int targetWidth;
-		public int targetHeight;
+		public long sequence;
+		public volatile int priority;
+		public volatile int stage;
+		public volatile boolean isCanceled;
+		public int deliveryStatus;
+		/**
+		 * the requests whose bitmap has been acquired for the listener, it
+		 * must be released if the request is not delivered
+		 */
+		public List<ImageLoadRequest> acquiredRequests = Collections
+				.emptyList();
+
+		private List<ImageLoadRequest> mRequests = new ArrayList<ImageLoadRequest>();
+		private boolean mIsFinished;
+
+		private Thread mRunner;
+		private ImageLoader mLoader;
+		private ImageSource mSource;
+		/**
+		 * the latest ticket in the executor queue, null if not queued
+		 */
+		private TaskTicket mTicket;
+
+		/**
+		 * Replace the queued ticket by a new one with current priority
+		 * 
+		 * @return the ticket to execute
+		 */
+		public synchronized TaskTicket newTicket() {
+			mTicket = new TaskTicket(this, priority);
+			return mTicket;
+		}
+
+		public synchronized boolean isQueued() {
+			return null != mTicket;
+		}
+
+		/**
+		 * Take the task out of the queue by its ticket
+		 * 
+		 * @return false if the ticket is stale
+		 */
+		private synchronized boolean claim(TaskTicket ticket) {
+			if (mTicket != ticket) {
+				return false;
+			}
+			mTicket = null;
+			return true;
+		}
+
+		/**
+		 * Share this task with another request
+		 * 
+		 * @param request
+		 * @return false if this task has been finished, can not be shared
+		 *         anymore
+		 */
+		public synchronized boolean addRequest(ImageLoadRequest request) {
+			if (mIsFinished) {
+				return false;
+			}
+			request.task = this;
+			mRequests.add(request);
+			return true;
+		}
+
+		/**
+		 * Remove the canceled request
+		 * 
+		 * @param request
+		 * @return true if no request is waiting for this task anymore, it
+		 *         should be aborted
+		 */
+		public synchronized boolean removeRequest(ImageLoadRequest request) {
+			if (!mRequests.remove(request) || !mRequests.isEmpty()
+					|| mIsFinished) {
+				return false;
+			}
+			mIsFinished = true;
+			return true;
+		}
+
+		/**
+		 * @return the highest priority of the requests
+		 */
+		public synchronized int computePriority() {
+			int priority = PRIORITY_BACKGROUND;
+			for (ImageLoadRequest request : mRequests) {
+				priority = Math.max(priority, request.priority);
+			}
+			return priority;
+		}
+
+		/**
+		 * Stop the download and decode in progress, no listener will be
+		 * notified
+		 */
+		public synchronized void abort() {
+			isCanceled = true;
+			if (null != mSource) {
+				mSource.abort();
+			}
+			// stop copying the stream into cache file
+			if (null != mRunner) {
+				mRunner.interrupt();
+			}
+		}
+
+		/**
+		 * @return the first request still waiting, null if all of them are
+		 *         canceled
+		 */
+		private synchronized ImageLoadRequest getFirstRequest() {
+			return mRequests.isEmpty() ? null : mRequests.get(0);
+		}
+
+		/**
+		 * Snapshot of the requests waiting for this task
+		 */
+		public synchronized List<ImageLoadRequest> getRequests() {
+			return new ArrayList<ImageLoadRequest>(mRequests);
+		}
+
+		/**
+		 * Drop the requests which intercepted by
+		 * {@link OnImageLoadListener#onPreLoad(String)}
+		 * 
+		 * @return true if there is still any request waiting for this task
+		 */
+		private boolean checkPreLoad() {
+			final String imageUrl = uri.toString();
+			for (ImageLoadRequest request : getRequests()) {
+				if (!request.isPreLoadChecked) {
+					request.isPreLoadChecked = true;
+					if (request.listener.onPreLoad(imageUrl)) {
+						synchronized (this) {
+							mRequests.remove(request);
+						}
+						unregisterRequest(request);
+					}
+				}
+			}
+
+			synchronized (this) {
+				if (mRequests.isEmpty()) {
+					mIsFinished = true;
+				}
+				return !mIsFinished;
+			}
+		}
+
+		/**
+		 * Stop sharing this task and notify the waiting listeners
+		 * 
+		 * @param status
+		 */
+		public void finish(int status) {
+			synchronized (this) {
+				mIsFinished = true;
+			}
+			removeTask(this);
+			postResult(this, status);
+		}
+
+		/**
+		 * Stop sharing this task, then decode the cached image once for every
+		 * target size of the waiting requests
+		 * 
+		 * @param decoded
+		 *            the request whose bitmap has been decoded
+		 */
+		private void finishWithDecode(ImageLoadRequest decoded) {
+			synchronized (this) {
+				mIsFinished = true;
+			}
+			removeTask(this);
+
+			final String cacheIdentifier = uri.toString();
+			List<ImageLoadRequest> requests = getRequests();
+			List<ImageLoadRequest> decodedRequests = new ArrayList<ImageLoadRequest>(
+					requests.size());
+			acquiredRequests = new ArrayList<ImageLoadRequest>(
+					requests.size() + 1);
+			// hold the bitmap for every listener before it is cached, the
+			// eviction caused by the next decode will not pool it
+			if (null != decoded) {
+				acquireBitmap(decoded.bitmap);
+				acquiredRequests.add(decoded);
+				decodedRequests.add(decoded);
+				putMemoryCache(cacheIdentifier, decoded);
+			}
+			for (ImageLoadRequest request : requests) {
+				if (request == decoded) {
+					continue;
+				}
+				for (ImageLoadRequest decodedRequest : decodedRequests) {
+					if (decodedRequest.targetWidth == request.targetWidth
+							&& decodedRequest.targetHeight == request.targetHeight
+							&& decodedRequest.decodeOptions
+									.equals(request.decodeOptions)) {
+						request.bitmap = decodedRequest.bitmap;
+						acquireBitmap(request.bitmap);
+						acquiredRequests.add(request);
+						break;
+					}
+				}
+				if (null == request.bitmap) {
+					if (isCanceled) {
+						for (ImageLoadRequest acquired : acquiredRequests) {
+							releaseBitmap(acquired.bitmap);
+						}
+						return;
+					}
+					request.bitmap = decodeRequest(request);
+					acquireBitmap(request.bitmap);
+					acquiredRequests.add(request);
+					decodedRequests.add(request);
+					putMemoryCache(cacheIdentifier, request);
+				}
+			}
+			postResult(this, STATUS_SUCCESS);
+		}
 
 		@Override
 		public boolean equals(Object o) {
@@ -318,106 +1559,578 @@ public class AsyncImageLoader {
 			return super.equals(o);
 		}
 
+		@Override
+		public int hashCode() {
+			return uri.hashCode();
+		}
+
 		@Override
 		public void run() {
-			Message message = mImageLoadedHandler.obtainMessage(STATUS_SUCCESS,
-					this);
-			if (listener != null && listener.onPreLoad(uri.toString())) {
-				message.what = STATUS_CANCEL;
-				message.sendToTarget();
+			// queued before paused
+			if (isCanceled || parkIfPaused(this)) {
+				return;
+			}
+			synchronized (this) {
+				if (isCanceled) {
+					return;
+				}
+				mRunner = Thread.currentThread();
+			}
+
+			try {
+				switch (stage) {
+				case STAGE_READ_CACHE:
+					readCache();
+					break;
+				case STAGE_FETCH:
+					fetch();
+					break;
+				case STAGE_DECODE:
+					decode();
+					break;
+				}
+			} finally {
+				synchronized (this) {
+					mRunner = null;
+					mSource = null;
+					// do not leak the interruption to the next task
+					Thread.interrupted();
+				}
+			}
+		}
+
+		private void readCache() {
+			if (!checkPreLoad()) {
+				finish(STATUS_CANCEL);
+				return;
+			}
+			mLoader = findImageLoader(uri);
+			if (null == mLoader) {
+				Log.d(LOG_TAG, "No loader for the image: " + uri);
+				finish(STATUS_ERROR);
 				return;
 			}
+			if (mLoader.isLocal()) {
+				// decode from the source, no copy in disk cache
+				loadLocal();
+				return;
+			}
+
 			String cacheIdentifier = uri.toString();
 			long cacheLength = mFileCacheManager
 					.getCacheFileLength(cacheIdentifier);
 			if (cacheLength > 0 && readCacheIfExist) {
-				bitmap = readCachedBitmap(cacheIdentifier, targetWidth,
-						targetHeight);
-				if (null != bitmap) {
+				ImageLoadRequest request = getFirstRequest();
+				if (null == request) {
+					finish(STATUS_CANCEL);
+					return;
+				}
+				request.bitmap = readCachedBitmap(cacheIdentifier,
+						request.targetWidth, request.targetHeight,
+						request.decodeOptions);
+				if (null != request.bitmap) {
 					Log.d(LOG_TAG, "Image cache found!");
 					isLoadFromCache = true;
-					message.sendToTarget();
+					finishWithDecode(request);
 					return;
 				}
 			}
 
 			Log.d(LOG_TAG, "Image cache not found, get it in async method!");
+			dispatch(this, STAGE_FETCH);
+		}
+
+		private void fetch() {
+			if (!checkPreLoad()) {
+				finish(STATUS_CANCEL);
+				return;
+			}
 			InputStream inputStream = null;
 			try {
-				if (uri.getScheme().startsWith("content:")) {
-					ParcelFileDescriptor fileDescriptor = mContext
-							.getContentResolver().openFileDescriptor(uri, "r");
-					totleBytes = fileDescriptor.getStatSize();
-					inputStream = new FileInputStream(
-							fileDescriptor.getFileDescriptor());
-				} else {
-					// Began to load from network
-					HttpConnectionHelper connection = HttpConnectionHelper
-							.getInstance();
-					HttpResponse response = connection.execute(connection
-							.obtainHttpGetRequest(URI.create(uri.toString()),
-									null));
-
-					HttpEntity entity = response.getEntity();
-					inputStream = entity.getContent();
-					totleBytes = entity.getContentLength();
+				// the image is being downloaded by another writer, wait for
+				// it instead of downloading again
+				if (mFileCacheManager.isWriting(uri.toString())
+						&& mFileCacheManager.waitForWriting(uri.toString(),
+								WRITING_TIMEOUT_MILLIS)) {
+					dispatch(this, STAGE_DECODE);
+					return;
 				}
 
-				saveBitmapStream(uri.toString(), inputStream, this);
-				bitmap = readCachedBitmap(uri.toString(), targetWidth,
-						targetHeight);
-				if (null == bitmap) {
-					Log.d(LOG_TAG, String.format(
-							"Delete the broken image cache! url: %s",
-							uri.toString()));
-					mFileCacheManager.deleteCache(uri.toString());
-					message.what = STATUS_ERROR;
-					message.sendToTarget();
+				ImageSource source = mLoader.createSource(mContext, uri);
+				synchronized (this) {
+					if (isCanceled) {
+						return;
+					}
+					mSource = source;
+				}
+				inputStream = source.open();
+				totleBytes = source.getLength();
+
+				if (mIsStreamingDecode && decodeWhileSaving(inputStream)) {
+					return;
+				}
+
+				if (saveBitmapStream(uri.toString(), inputStream, this)) {
+					// decode in the decode executor, release the network
+					// thread as soon as possible
+					dispatch(this, STAGE_DECODE);
 					return;
 				}
-				message.sendToTarget();
-				return;
 			} catch (Exception e) {
-				Log.d(LOG_TAG, e.getMessage());
+				Log.d(LOG_TAG, String.valueOf(e.getMessage()));
+			} finally {
+				Utils.closeQuietly(inputStream);
+			}
+			finish(STATUS_ERROR);
+		}
+
+		/**
+		 * Decode the stream while writing it to the cache file
+		 * 
+		 * @return true if the stream is consumed and the task goes on, false
+		 *         if the stream should be saved as usual
+		 */
+		private boolean decodeWhileSaving(InputStream inputStream)
+				throws IOException {
+			ImageLoadRequest request = getFirstRequest();
+			if (null == request) {
+				return false;
+			}
+			FileCacheManager.Editor editor = mFileCacheManager.edit(uri
+					.toString());
+			if (null == editor) {
+				return false;
+			}
+
+			boolean committed;
+			try {
+				TeeInputStream teeStream = new TeeInputStream(inputStream,
+						editor.getOutputStream(), this);
+				request.bitmap = decodeStream(teeStream, request.targetWidth,
+						request.targetHeight, request.decodeOptions);
+				// the decoder may not read all the bytes
+				teeStream.drain();
+				committed = editor.commit();
+			} finally {
+				editor.abort();
+			}
+
+			if (null != request.bitmap) {
+				finishWithDecode(request);
+			} else if (committed) {
+				dispatch(this, STAGE_DECODE);
+			} else {
+				finish(STATUS_ERROR);
+			}
+			return true;
+		}
+
+		private void loadLocal() {
+			ImageLoadRequest request = getFirstRequest();
+			if (null == request) {
+				finish(STATUS_CANCEL);
+				return;
+			}
+			request.bitmap = decodeRequest(request);
+			if (null == request.bitmap) {
+				finish(isCanceled ? STATUS_CANCEL : STATUS_ERROR);
+				return;
+			}
+			finishWithDecode(request);
+		}
+
+		/**
+		 * Decode the image for the request, from the source if it is local,
+		 * otherwise from the cache file
+		 */
+		private Bitmap decodeRequest(ImageLoadRequest request) {
+			if (!mLoader.isLocal()) {
+				return readCachedBitmap(uri.toString(), request.targetWidth,
+						request.targetHeight, request.decodeOptions);
+			}
+
+			ImageSource source = createSource();
+			if (null == source) {
+				return null;
+			}
+			Options decodeOptions;
+			try {
+				InputStream inputStream = source.open();
+				if (inputStream instanceof FileInputStream) {
+					// decode the file by its descriptor
+					FileDescriptor fileDescriptor = ((FileInputStream)
+							inputStream).getFD();
+					decodeOptions = decodeBounds(fileDescriptor);
+					return null == decodeOptions ? null : decodeFileDescriptor(
+							fileDescriptor, decodeOptions,
+							request.targetWidth, request.targetHeight,
+							request.decodeOptions);
+				}
+
+				MarkableInputStream markableStream = new MarkableInputStream(
+						inputStream, STREAM_MARK_LIMIT);
+				decodeOptions = decodeBounds(markableStream);
+				if (null == decodeOptions) {
+					return null;
+				}
+				if (rewind(markableStream)) {
+					return decodeStream(markableStream, decodeOptions,
+							request.targetWidth, request.targetHeight,
+							request.decodeOptions);
+				}
+			} catch (IOException e) {
+				Log.d(LOG_TAG, String.valueOf(e.getMessage()));
+				return null;
 			} finally {
-				try {
-					inputStream.close();
-				} catch (Exception e) {
-					e.printStackTrace();
+				source.close();
+			}
+
+			// the header is larger than the mark limit, there is no cache
+			// file to decode, read the source again
+			source = createSource();
+			if (null == source) {
+				return null;
+			}
+			try {
+				return decodeStream(source.open(), decodeOptions,
+						request.targetWidth, request.targetHeight,
+						request.decodeOptions);
+			} catch (IOException e) {
+				Log.d(LOG_TAG, String.valueOf(e.getMessage()));
+				return null;
+			} finally {
+				source.close();
+			}
+		}
+
+		/**
+		 * @return null if the task has been canceled
+		 */
+		private ImageSource createSource() {
+			ImageSource source = mLoader.createSource(mContext, uri);
+			synchronized (this) {
+				if (isCanceled) {
+					return null;
 				}
+				mSource = source;
+			}
+			return source;
+		}
+
+		private boolean rewind(InputStream inputStream) {
+			try {
+				inputStream.reset();
+				return true;
+			} catch (IOException e) {
+				return false;
 			}
-			message.what = STATUS_ERROR;
-			message.sendToTarget();
+		}
+
+		private void decode() {
+			ImageLoadRequest request = getFirstRequest();
+			if (null == request) {
+				finish(STATUS_CANCEL);
+				return;
+			}
+			request.bitmap = readCachedBitmap(uri.toString(),
+					request.targetWidth, request.targetHeight,
+					request.decodeOptions);
+			if (null == request.bitmap) {
+				Log.d(LOG_TAG, String.format(
+						"Delete the broken image cache! url: %s",
+						uri.toString()));
+				mFileCacheManager.deleteCache(uri.toString());
+				finish(STATUS_ERROR);
+				return;
+			}
+			finishWithDecode(request);
 		}
 
 		@Override
 		public void onWriting(int saveBytes) {
-			listener.onLoading(uri.toString(), saveBytes, totleBytes);
+			final String imageUrl = uri.toString();
+			for (ImageLoadRequest request : getRequests()) {
+				request.listener.onLoading(imageUrl, saveBytes, totleBytes);
+			}
+		}
+	}
+
+	/**
+	 * Copy the bytes to the {@link OutputStream} while they are read, and
+	 * report the progress
+	 */
+	private static class TeeInputStream extends FilterInputStream {
+		private OutputStream mOutputStream;
+		private OnWriteListener mOnWriteListener;
+		private int mTotalCount;
+		private final byte[] mSingleByte = new byte[1];
+
+		public TeeInputStream(InputStream inputStream,
+				OutputStream outputStream, OnWriteListener onWriteListener) {
+			super(inputStream);
+			mOutputStream = outputStream;
+			mOnWriteListener = onWriteListener;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return read(mSingleByte, 0, 1) == -1 ? -1 : mSingleByte[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int count)
+				throws IOException {
+			// the task has been canceled
+			if (Thread.currentThread().isInterrupted()) {
+				throw new InterruptedIOException();
+			}
+			int read = super.read(buffer, offset, count);
+			if (read > 0) {
+				mOutputStream.write(buffer, offset, read);
+				mTotalCount += read;
+				if (null != mOnWriteListener) {
+					mOnWriteListener.onWriting(mTotalCount);
+				}
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long count) throws IOException {
+			if (count <= 0) {
+				return 0;
+			}
+			// the skipped bytes must be written too
+			byte[] buffer = new byte[(int) Math.min(count, 8 * 1024)];
+			int read = read(buffer, 0, buffer.length);
+			return read == -1 ? 0 : read;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		/**
+		 * Read all the remaining bytes
+		 */
+		public void drain() throws IOException {
+			byte[] buffer = new byte[8 * 1024];
+			while (read(buffer, 0, buffer.length) != -1) {
+			}
+		}
+	}
+
+	/**
+	 * Buffer the header of the stream, so it can be decoded again after the
+	 * bounds decoded. Before Lollipop {@link BitmapFactory} marks the stream
+	 * again with a smaller limit, which would drop the header once the
+	 * decoder read past it, such mark is ignored
+	 */
+	private static class MarkableInputStream extends BufferedInputStream {
+		public MarkableInputStream(InputStream inputStream, int markLimit) {
+			super(inputStream);
+			super.mark(markLimit);
+		}
+
+		@Override
+		public synchronized void mark(int readlimit) {
+			// the same position is still marked with a larger limit
+			if (markpos >= 0 && markpos == pos && readlimit <= marklimit) {
+				return;
+			}
+			super.mark(readlimit);
+		}
+	}
+
+	/**
+	 * The entry of the {@link ImageLoadingTask} in the executor queue, the
+	 * priority is fixed when it is queued, so the task can be reprioritized
+	 * without breaking the order of the queue
+	 */
+	private static class TaskTicket implements Runnable {
+		public final ImageLoadingTask task;
+		public final int priority;
+
+		public TaskTicket(ImageLoadingTask task, int priority) {
+			this.task = task;
+			this.priority = priority;
+		}
+
+		@Override
+		public void run() {
+			// requeued with another priority
+			if (task.claim(this)) {
+				task.run();
+			}
+		}
+	}
+
+	/**
+	 * Order the queued {@link TaskTicket} and the paused
+	 * {@link ImageLoadingTask} by priority, then last in first out
+	 */
+	private static class TaskComparator implements Comparator<Runnable> {
+		@Override
+		public int compare(Runnable lhs, Runnable rhs) {
+			ImageLoadingTask lhsTask = getTask(lhs);
+			ImageLoadingTask rhsTask = getTask(rhs);
+			if (null == lhsTask || null == rhsTask) {
+				return 0;
+			}
+			int lhsPriority = getPriority(lhs);
+			int rhsPriority = getPriority(rhs);
+			if (lhsPriority != rhsPriority) {
+				return lhsPriority > rhsPriority ? -1 : 1;
+			}
+			long lhsSequence = lhsTask.sequence;
+			long rhsSequence = rhsTask.sequence;
+			return lhsSequence > rhsSequence ? -1
+					: (lhsSequence == rhsSequence ? 0 : 1);
+		}
+
+		private static ImageLoadingTask getTask(Runnable runnable) {
+			if (runnable instanceof TaskTicket) {
+				return ((TaskTicket) runnable).task;
+			}
+			if (runnable instanceof ImageLoadingTask) {
+				return (ImageLoadingTask) runnable;
+			}
+			return null;
+		}
+
+		private static int getPriority(Runnable runnable) {
+			if (runnable instanceof TaskTicket) {
+				return ((TaskTicket) runnable).priority;
+			}
+			return ((ImageLoadingTask) runnable).priority;
+		}
+	}
+
+	private static class ImageLoaderThreadFactory implements ThreadFactory {
+		private final AtomicInteger mCount = new AtomicInteger(1);
+		private final String mName;
+
+		public ImageLoaderThreadFactory(String name) {
+			mName = name;
+		}
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			return new Thread(new Runnable() {
+				@Override
+				public void run() {
+					// do not compete with the UI thread
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					runnable.run();
+				}
+			}, LOG_TAG + "-" + mName + " #" + mCount.getAndIncrement());
+		}
+	}
+
+	/**
+	 * Notify the main thread that the task is finished, the finished tasks
+	 * are queued until the next frame if {@link #setBatchDelivery(boolean)}
+	 */
+	private void postResult(ImageLoadingTask task, int status) {
+		if (!mIsBatchDelivery) {
+			mImageLoadedHandler.obtainMessage(status, task).sendToTarget();
+			return;
+		}
+		task.deliveryStatus = status;
+		mFinishedTasks.offer(task);
+		if (mIsDeliveryScheduled.compareAndSet(false, true)) {
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+				// Choreographer can only be obtained on the main thread
+				mImageLoadedHandler.sendEmptyMessage(MSG_SCHEDULE_FRAME);
+			} else {
+				mImageLoadedHandler.sendEmptyMessageDelayed(
+						MSG_DELIVER_BATCH, FRAME_INTERVAL_MILLIS);
+			}
+		}
+	}
+
+	/**
+	 * Deliver all the queued tasks, run on the main thread
+	 */
+	private void deliverFinishedTasks() {
+		// the task finished from now on will schedule another delivery
+		mIsDeliveryScheduled.set(false);
+		ImageLoadingTask task;
+		while (null != (task = mFinishedTasks.poll())) {
+			deliverResult(task, task.deliveryStatus);
+		}
+	}
+
+	private void deliverResult(ImageLoadingTask task, int status) {
+		// if this ImageLoadingTask has been canceled before it done. we
+		// can not invoke the callback.
+		if (task.isCanceled) {
+			for (ImageLoadRequest request : task.acquiredRequests) {
+				releaseBitmap(request.bitmap);
+			}
+			return;
+		}
+		final List<ImageLoadRequest> requests = task.getRequests();
+		for (ImageLoadRequest request : task.acquiredRequests) {
+			// canceled by its target after the bitmap acquired
+			if (!requests.contains(request)) {
+				releaseBitmap(request.bitmap);
+			}
+		}
+		for (ImageLoadRequest request : requests) {
+			unregisterRequest(request);
+		}
+		final String imageUrl = task.uri.toString();
+		switch (status) {
+		case STATUS_SUCCESS:
+			for (ImageLoadRequest request : requests) {
+				if (null != request.bitmap) {
+					request.listener.onLoadSuccess(request.bitmap, imageUrl,
+							task.isLoadFromCache);
+				} else {
+					request.listener.onLoadError(imageUrl);
+				}
+			}
+			break;
+		case STATUS_ERROR:
+			for (ImageLoadRequest request : requests) {
+				request.listener.onLoadError(imageUrl);
+			}
+			break;
+		case STATUS_CANCEL:
+			break;
+		}
+	}
+
+	private class DeliveryFrameCallback implements Choreographer.FrameCallback {
+		@Override
+		public void doFrame(long frameTimeNanos) {
+			deliverFinishedTasks();
 		}
 	}
 
 	private class ImageLoadHandler extends Handler {
+		private DeliveryFrameCallback mFrameCallback;
+
 		public ImageLoadHandler(Looper looper) {
 			super(looper);
 		}
 
 		@Override
 		public void handleMessage(Message msg) {
-			ImageLoadingTask task = (ImageLoadingTask) msg.obj;
-			boolean isRemove = mTaskList.remove(task);
 			switch (msg.what) {
-			case STATUS_SUCCESS:
-				// if this ImageLoadingTask has been canceled before it done. we
-				// can not invoke the callback.
-				if (isRemove) {
-					task.listener.onLoadSuccess(task.bitmap,
-							task.uri.toString(), task.isLoadFromCache);
+			case MSG_SCHEDULE_FRAME:
+				if (null == mFrameCallback) {
+					mFrameCallback = new DeliveryFrameCallback();
 				}
+				Choreographer.getInstance().postFrameCallback(mFrameCallback);
 				break;
-			case STATUS_ERROR:
-				task.listener.onLoadError(task.uri.toString());
+			case MSG_DELIVER_BATCH:
+				deliverFinishedTasks();
 				break;
-			case STATUS_CANCEL:
+			default:
+				deliverResult((ImageLoadingTask) msg.obj, msg.what);
 				break;
 			}
 		}
@@ -0,0 +1,159 @@
+/* Copyright (c) 2011-2012 Tang Ke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aretha.content.image;
+
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+import com.aretha.content.CacheManager;
+
+/**
+ * A strong reference memory cache of decoded {@link Bitmap}, bounded by the
+ * byte size of the bitmaps, the least recently used one will be evicted first.
+ * Unlike the {@link CacheManager}, the cached bitmaps will not be cleared all
+ * at once by GC
+ * 
+ * <p>
+ * Use {@link #hitCount()}, {@link #missCount()} and {@link #evictionCount()}
+ * to monitor the efficiency of the cache
+ * </p>
+ * 
+ * <p>
+ * The bitmap put by {@link #putBitmap(String, Bitmap)} is referenced in the
+ * {@link BitmapPool} until it is removed, so it is not reused while any view
+ * still draws it
+ * </p>
+ * 
+ * @author Tank
+ */
+public class BitmapMemoryCache extends LruCache<String, Bitmap> {
+	private final static int DEFAULT_MEMORY_CLASS_DIVIDER = 8;
+
+	private volatile BitmapPool mBitmapPool;
+
+	/**
+	 * @param maxSize
+	 *            max bytes of the cached bitmaps
+	 */
+	public BitmapMemoryCache(int maxSize) {
+		super(maxSize);
+	}
+
+	/**
+	 * Default size of the cache, 1/8 of the max memory of current application
+	 * 
+	 * @return
+	 */
+	public static int getDefaultMaxSize() {
+		return (int) (Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_CLASS_DIVIDER);
+	}
+
+	/**
+	 * Generate the key of the bitmap decoded for the specified target size
+	 * 
+	 * @param uri
+	 * @param targetWidth
+	 * @param targetHeight
+	 * @return
+	 */
+	public static String generateKey(String uri, int targetWidth,
+			int targetHeight) {
+		return generateKey(uri, targetWidth, targetHeight, null);
+	}
+
+	/**
+	 * Generate the key of the bitmap decoded for the specified target size by
+	 * the options
+	 * 
+	 * @param uri
+	 * @param targetWidth
+	 * @param targetHeight
+	 * @param decodeOptions
+	 *            null for {@link DecodeOptions#DEFAULT}
+	 * @return
+	 */
+	public static String generateKey(String uri, int targetWidth,
+			int targetHeight, DecodeOptions decodeOptions) {
+		StringBuilder key = new StringBuilder(uri.length() + 24)
+				.append(targetWidth).append('x').append(targetHeight);
+		if (null != decodeOptions && !DecodeOptions.DEFAULT.equals(decodeOptions)) {
+			key.append('@').append(decodeOptions.getKey());
+		}
+		return key.append('#').append(uri).toString();
+	}
+
+	/**
+	 * Set the pool to receive the evicted bitmaps
+	 * 
+	 * @param bitmapPool
+	 *            null to drop the evicted bitmaps
+	 */
+	public void setBitmapPool(BitmapPool bitmapPool) {
+		mBitmapPool = bitmapPool;
+	}
+
+	public BitmapPool getBitmapPool() {
+		return mBitmapPool;
+	}
+
+	/**
+	 * Cache the bitmap and hold a reference of it until the entry is removed
+	 * 
+	 * @param key
+	 * @param bitmap
+	 */
+	public void putBitmap(String key, Bitmap bitmap) {
+		final BitmapPool bitmapPool = mBitmapPool;
+		if (null != bitmapPool) {
+			bitmapPool.acquire(bitmap);
+		}
+		put(key, bitmap);
+	}
+
+	/**
+	 * Get the cached bitmap and hold a reference of it for the caller, which
+	 * should be released by {@link BitmapPool#release(Bitmap)}
+	 * 
+	 * @param key
+	 * @return null if not cached
+	 */
+	public Bitmap acquire(String key) {
+		final BitmapPool bitmapPool = mBitmapPool;
+		if (null == bitmapPool) {
+			return get(key);
+		}
+		// the eviction releases the reference under the same lock, the
+		// bitmap found here can not be pooled before acquired
+		synchronized (bitmapPool) {
+			Bitmap bitmap = get(key);
+			bitmapPool.acquire(bitmap);
+			return bitmap;
+		}
+	}
+
+	@Override
+	protected int sizeOf(String key, Bitmap value) {
+		return value.getRowBytes() * value.getHeight();
+	}
+
+	@Override
+	protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+			Bitmap newValue) {
+		final BitmapPool bitmapPool = mBitmapPool;
+		if (null != bitmapPool) {
+			bitmapPool.release(oldValue);
+		}
+	}
+}
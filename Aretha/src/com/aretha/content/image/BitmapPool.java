@@ -0,0 +1,366 @@
+/* Copyright (c) 2011-2012 Tang Ke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aretha.content.image;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory.Options;
+import android.os.Build;
+
+/**
+ * A pool of the recycled mutable {@link Bitmap}, bucketed by the byte size.
+ * The pooled bitmap can be reused by {@link Options#inBitmap} to avoid the
+ * large allocation and the GC pause it caused
+ * 
+ * <p>
+ * Before KitKat the decoder can only reuse the bitmap which has the same size
+ * and config of the decoded image, and the image can not be sub sampled. Since
+ * KitKat, any bitmap which is large enough can be reused
+ * </p>
+ * 
+ * <p>
+ * A bitmap shared by the memory cache and the views is tracked by
+ * {@link #acquire(Bitmap)} and {@link #release(Bitmap)}, it is pooled only
+ * when the last reference is released
+ * </p>
+ * 
+ * @author Tank
+ */
+public class BitmapPool {
+	private final static int DEFAULT_MEMORY_CLASS_DIVIDER = 16;
+	private final static int KITKAT = 19;
+
+	private final int mMaxSize;
+	private int mSize;
+
+	private final TreeMap<Integer, LinkedList<Bitmap>> mBuckets;
+	private final LinkedList<Bitmap> mRecentlyPut;
+	// Bitmap does not override equals, the weak keys are compared by identity
+	private final WeakHashMap<Bitmap, Integer> mReferenceCounts;
+
+	private int mHitCount;
+	private int mMissCount;
+	private int mPutCount;
+	private int mEvictionCount;
+	private long mReusedBytes;
+
+	/**
+	 * @param maxSize
+	 *            max bytes of the pooled bitmaps
+	 */
+	public BitmapPool(int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		mMaxSize = maxSize;
+		mBuckets = new TreeMap<Integer, LinkedList<Bitmap>>();
+		mRecentlyPut = new LinkedList<Bitmap>();
+		mReferenceCounts = new WeakHashMap<Bitmap, Integer>();
+	}
+
+	/**
+	 * Default size of the pool, 1/16 of the max memory of current application
+	 * 
+	 * @return
+	 */
+	public static int getDefaultMaxSize() {
+		return (int) (Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_CLASS_DIVIDER);
+	}
+
+	/**
+	 * Whether the current platform support {@link Options#inBitmap}
+	 * 
+	 * @return
+	 */
+	public static boolean isSupported() {
+		return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+	}
+
+	/**
+	 * Hold a reference of the bitmap, it will not be pooled until every
+	 * reference is released
+	 * 
+	 * @param bitmap
+	 */
+	public synchronized void acquire(Bitmap bitmap) {
+		if (null == bitmap) {
+			return;
+		}
+		final Integer count = mReferenceCounts.get(bitmap);
+		mReferenceCounts.put(bitmap, null == count ? 1 : count + 1);
+	}
+
+	/**
+	 * Release a reference held by {@link #acquire(Bitmap)}, the bitmap will
+	 * be put into the pool when no reference left
+	 * 
+	 * @param bitmap
+	 * @return true if the reference is released, the caller must not draw
+	 *         the bitmap anymore. false if the bitmap is not held by anyone
+	 */
+	public synchronized boolean release(Bitmap bitmap) {
+		if (null == bitmap) {
+			return false;
+		}
+		final Integer count = mReferenceCounts.get(bitmap);
+		if (null == count) {
+			return false;
+		}
+		if (count > 1) {
+			mReferenceCounts.put(bitmap, count - 1);
+		} else {
+			mReferenceCounts.remove(bitmap);
+			put(bitmap);
+		}
+		return true;
+	}
+
+	/**
+	 * Count of the references held by {@link #acquire(Bitmap)}
+	 * 
+	 * @param bitmap
+	 * @return
+	 */
+	public synchronized int getReferenceCount(Bitmap bitmap) {
+		final Integer count = mReferenceCounts.get(bitmap);
+		return null == count ? 0 : count;
+	}
+
+	/**
+	 * Put a bitmap which is not used anymore into the pool, the least
+	 * recently put bitmaps will be evicted if the pool is full. The bitmap
+	 * still referenced by {@link #acquire(Bitmap)} will be refused
+	 * 
+	 * @param bitmap
+	 * @return true if the bitmap is accepted
+	 */
+	public synchronized boolean put(Bitmap bitmap) {
+		if (null == bitmap || bitmap.isRecycled() || !bitmap.isMutable()
+				|| mReferenceCounts.containsKey(bitmap)) {
+			return false;
+		}
+
+		final int byteCount = getByteCount(bitmap);
+		if (byteCount > mMaxSize) {
+			return false;
+		}
+
+		LinkedList<Bitmap> bucket = mBuckets.get(byteCount);
+		if (null == bucket) {
+			bucket = new LinkedList<Bitmap>();
+			mBuckets.put(byteCount, bucket);
+		} else if (containsBitmap(bucket, bitmap)) {
+			return false;
+		}
+
+		while (mSize + byteCount > mMaxSize && !mRecentlyPut.isEmpty()) {
+			Bitmap evicted = mRecentlyPut.removeFirst();
+			removeFromBucket(evicted);
+			mEvictionCount++;
+		}
+
+		bucket.addLast(bitmap);
+		mRecentlyPut.addLast(bitmap);
+		mSize += byteCount;
+		mPutCount++;
+		return true;
+	}
+
+	/**
+	 * Take a bitmap from the pool which can be used as the
+	 * {@link Options#inBitmap} to decode the image described by options
+	 * 
+	 * @param options
+	 *            options with the bounds of the image and the sample size
+	 * @return null if no matching bitmap found
+	 */
+	public synchronized Bitmap get(Options options) {
+		final Config config = null == options.inPreferredConfig ? Config.ARGB_8888
+				: options.inPreferredConfig;
+		final int sampleSize = Math.max(1, options.inSampleSize);
+		Bitmap bitmap = null;
+		if (Build.VERSION.SDK_INT >= KITKAT) {
+			int width = (options.outWidth + sampleSize - 1) / sampleSize;
+			int height = (options.outHeight + sampleSize - 1) / sampleSize;
+			bitmap = takeAtLeast(width * height * getBytesPerPixel(config));
+		} else if (1 == sampleSize) {
+			bitmap = takeExactly(options.outWidth, options.outHeight, config);
+		}
+
+		if (null == bitmap) {
+			mMissCount++;
+		} else {
+			mHitCount++;
+			mReusedBytes += getByteCount(bitmap);
+		}
+		return bitmap;
+	}
+
+	private Bitmap takeAtLeast(int byteCount) {
+		SortedMap<Integer, LinkedList<Bitmap>> largerBuckets = mBuckets
+				.tailMap(byteCount);
+		if (largerBuckets.isEmpty()) {
+			return null;
+		}
+		// avoid to waste too much memory on a small image
+		Integer bucketByteCount = largerBuckets.firstKey();
+		if (bucketByteCount > byteCount * 2) {
+			return null;
+		}
+		return take(largerBuckets.get(bucketByteCount).getLast());
+	}
+
+	private Bitmap takeExactly(int width, int height, Config config) {
+		LinkedList<Bitmap> bucket = mBuckets.get(width * height
+				* getBytesPerPixel(config));
+		if (null == bucket) {
+			return null;
+		}
+		for (Bitmap bitmap : bucket) {
+			if (bitmap.getWidth() == width && bitmap.getHeight() == height
+					&& bitmap.getConfig() == config) {
+				return take(bitmap);
+			}
+		}
+		return null;
+	}
+
+	private Bitmap take(Bitmap bitmap) {
+		removeFromBucket(bitmap);
+		removeBitmap(mRecentlyPut, bitmap);
+		return bitmap;
+	}
+
+	private void removeFromBucket(Bitmap bitmap) {
+		final int byteCount = getByteCount(bitmap);
+		LinkedList<Bitmap> bucket = mBuckets.get(byteCount);
+		if (null != bucket && removeBitmap(bucket, bitmap)) {
+			mSize -= byteCount;
+			if (bucket.isEmpty()) {
+				mBuckets.remove(byteCount);
+			}
+		}
+	}
+
+	private static boolean containsBitmap(LinkedList<Bitmap> list, Bitmap bitmap) {
+		for (Bitmap item : list) {
+			if (item == bitmap) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean removeBitmap(LinkedList<Bitmap> list, Bitmap bitmap) {
+		Iterator<Bitmap> iterator = list.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next() == bitmap) {
+				iterator.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Remove all the pooled bitmaps
+	 */
+	public synchronized void clear() {
+		mBuckets.clear();
+		mRecentlyPut.clear();
+		mSize = 0;
+	}
+
+	private static int getByteCount(Bitmap bitmap) {
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+	private static int getBytesPerPixel(Config config) {
+		switch (config) {
+		case ALPHA_8:
+			return 1;
+		case RGB_565:
+		case ARGB_4444:
+			return 2;
+		case ARGB_8888:
+		default:
+			return 4;
+		}
+	}
+
+	/**
+	 * Bytes of the pooled bitmaps
+	 * 
+	 * @return
+	 */
+	public synchronized int size() {
+		return mSize;
+	}
+
+	public int maxSize() {
+		return mMaxSize;
+	}
+
+	/**
+	 * Times of a reusable bitmap found
+	 * 
+	 * @return
+	 */
+	public synchronized int hitCount() {
+		return mHitCount;
+	}
+
+	/**
+	 * Times of no reusable bitmap found
+	 * 
+	 * @return
+	 */
+	public synchronized int missCount() {
+		return mMissCount;
+	}
+
+	public synchronized int putCount() {
+		return mPutCount;
+	}
+
+	public synchronized int evictionCount() {
+		return mEvictionCount;
+	}
+
+	/**
+	 * Total bytes of the allocation avoided by reusing the pooled bitmap
+	 * 
+	 * @return
+	 */
+	public synchronized long reusedBytes() {
+		return mReusedBytes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		int accesses = mHitCount + mMissCount;
+		int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+		return String.format(
+				"BitmapPool[size=%d,maxSize=%d,hits=%d,misses=%d,hitRate=%d%%,reusedBytes=%d]",
+				mSize, mMaxSize, mHitCount, mMissCount, hitPercent,
+				mReusedBytes);
+	}
+}
@@ -0,0 +1,112 @@
+/* Copyright (c) 2011-2012 Tang Ke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aretha.content.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+
+/**
+ * How to decode the image of a request. Use {@link Config#RGB_565} for the
+ * opaque images, such as the JPEG photos, to halve the memory of the
+ * bitmaps, then twice as many of them can be kept in the memory cache
+ * 
+ * <p>
+ * By default the image is sub sampled by power of two to fit the target
+ * size, which is fast but the decoded bitmap may be near half of the target
+ * size. With exact scaling, the image is sub sampled to a little larger than
+ * the target, then scaled down to fit the target exactly
+ * </p>
+ * 
+ * @author Tank
+ */
+public class DecodeOptions {
+	/**
+	 * Decode in {@link Config#ARGB_8888}, sub sampled by power of two
+	 */
+	public final static DecodeOptions DEFAULT = new DecodeOptions(null, true,
+			false);
+
+	/**
+	 * Decode the image without alpha in {@link Config#RGB_565}, sub sampled
+	 * by power of two
+	 */
+	public final static DecodeOptions OPAQUE = new DecodeOptions(null, false,
+			false);
+
+	private final Config mConfig;
+	private final boolean mHasAlpha;
+	private final boolean mIsExactScaling;
+
+	/**
+	 * @param config
+	 *            config of the decoded bitmap, null to select by hasAlpha
+	 * @param hasAlpha
+	 *            false if the image is opaque, it will be decoded in
+	 *            {@link Config#RGB_565} if config is null
+	 * @param exactScaling
+	 *            true to scale the image to fit the target size exactly,
+	 *            false to sub sample by power of two only
+	 */
+	public DecodeOptions(Config config, boolean hasAlpha, boolean exactScaling) {
+		mConfig = config;
+		mHasAlpha = hasAlpha;
+		mIsExactScaling = exactScaling;
+	}
+
+	/**
+	 * @return the config to decode the {@link Bitmap}
+	 */
+	public Config getPreferredConfig() {
+		if (null != mConfig) {
+			return mConfig;
+		}
+		return mHasAlpha ? Config.ARGB_8888 : Config.RGB_565;
+	}
+
+	public boolean hasAlpha() {
+		return mHasAlpha;
+	}
+
+	public boolean isExactScaling() {
+		return mIsExactScaling;
+	}
+
+	/**
+	 * @return a short key to distinguish the bitmaps decoded by different
+	 *         options
+	 */
+	public String getKey() {
+		return getPreferredConfig().name() + (mIsExactScaling ? "e" : "");
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof DecodeOptions)) {
+			return false;
+		}
+		DecodeOptions options = (DecodeOptions) o;
+		return getPreferredConfig() == options.getPreferredConfig()
+				&& mIsExactScaling == options.mIsExactScaling;
+	}
+
+	@Override
+	public int hashCode() {
+		return getPreferredConfig().hashCode() * 31
+				+ (mIsExactScaling ? 1 : 0);
+	}
+}
@@ -0,0 +1,276 @@
+/* Copyright (c) 2011-2012 Tang Ke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aretha.content.image;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+
+import com.aretha.content.image.AsyncImageLoader.OnImageLoadListener;
+
+/**
+ * Load the images of the next items ahead of the viewport at
+ * {@link AsyncImageLoader#PRIORITY_PREFETCH}, so they are in the disk cache
+ * and memory cache when the items are bound. Set it to the {@link AbsListView}
+ * as {@link OnScrollListener}, or call
+ * {@link #setVisibleRange(int, int, int, boolean)} when the visible items
+ * change. All the methods should be called on the main thread
+ * 
+ * @author Tank
+ * 
+ */
+public class ImagePrefetcher implements OnScrollListener {
+	/**
+	 * Default number of the items to prefetch ahead of the viewport
+	 */
+	public final static int DEFAULT_PREFETCH_DISTANCE = 5;
+
+	/**
+	 * Default number of the prefetch loads at the same time
+	 */
+	public final static int DEFAULT_MAX_CONCURRENT_PREFETCH = 2;
+
+	private AsyncImageLoader mImageLoader;
+	private ImageUrlProvider mImageUrlProvider;
+	private OnScrollListener mDelegate;
+
+	private int mPrefetchDistance = DEFAULT_PREFETCH_DISTANCE;
+	private int mMaxConcurrentPrefetch = DEFAULT_MAX_CONCURRENT_PREFETCH;
+	private int mTargetWidth;
+	private int mTargetHeight;
+
+	private int mLastFirstVisibleItem = -1;
+	private LinkedList<Integer> mPendingPositions = new LinkedList<Integer>();
+	private ArrayList<PrefetchRequest> mRunningRequests = new ArrayList<PrefetchRequest>();
+
+	/**
+	 * Provide the image url of the item
+	 */
+	public interface ImageUrlProvider {
+		/**
+		 * @param position
+		 *            position of the item
+		 * @return url of the image to prefetch, null if the item has no image
+		 */
+		public String getImageUrl(int position);
+	}
+
+	public ImagePrefetcher(AsyncImageLoader imageLoader,
+			ImageUrlProvider imageUrlProvider) {
+		this(imageLoader, imageUrlProvider, null);
+	}
+
+	/**
+	 * @param imageLoader
+	 * @param imageUrlProvider
+	 *            usually the adapter
+	 * @param delegate
+	 *            the {@link OnScrollListener} which also want to receive the
+	 *            scroll events, such as {@link PauseOnScrollListener}, can be
+	 *            null
+	 */
+	public ImagePrefetcher(AsyncImageLoader imageLoader,
+			ImageUrlProvider imageUrlProvider, OnScrollListener delegate) {
+		if (null == imageLoader || null == imageUrlProvider) {
+			throw new IllegalArgumentException(
+					"imageLoader and imageUrlProvider can not be null");
+		}
+		mImageLoader = imageLoader;
+		mImageUrlProvider = imageUrlProvider;
+		mDelegate = delegate;
+	}
+
+	/**
+	 * @param distance
+	 *            number of the items to prefetch ahead of the viewport
+	 */
+	public void setPrefetchDistance(int distance) {
+		mPrefetchDistance = Math.max(0, distance);
+	}
+
+	public int getPrefetchDistance() {
+		return mPrefetchDistance;
+	}
+
+	/**
+	 * Limit the prefetch loads at the same time, so they will not take all
+	 * the bandwidth of the visible images
+	 * 
+	 * @param maxConcurrentPrefetch
+	 */
+	public void setMaxConcurrentPrefetch(int maxConcurrentPrefetch) {
+		if (maxConcurrentPrefetch <= 0) {
+			throw new IllegalArgumentException(
+					"maxConcurrentPrefetch must be positive");
+		}
+		mMaxConcurrentPrefetch = maxConcurrentPrefetch;
+		startPendingRequests();
+	}
+
+	public int getMaxConcurrentPrefetch() {
+		return mMaxConcurrentPrefetch;
+	}
+
+	/**
+	 * Size of the image view, should be the same as the one used to bind the
+	 * item, or the memory cache will not be hit. 0 means the screen size,
+	 * which is the default of {@link com.aretha.widget.WebImageView}
+	 * 
+	 * @param width
+	 * @param height
+	 */
+	public void setTargetSize(int width, int height) {
+		mTargetWidth = width;
+		mTargetHeight = height;
+	}
+
+	/**
+	 * Prefetch the items ahead of the viewport, the prefetches out of the new
+	 * range will be canceled
+	 * 
+	 * @param firstVisibleItem
+	 *            position of the first visible item
+	 * @param lastVisibleItem
+	 *            position of the last visible item
+	 * @param totalItemCount
+	 * @param scrollForward
+	 *            true if the items of larger position are coming
+	 */
+	public void setVisibleRange(int firstVisibleItem, int lastVisibleItem,
+			int totalItemCount, boolean scrollForward) {
+		int start, end;
+		if (scrollForward) {
+			start = lastVisibleItem + 1;
+			end = Math.min(totalItemCount - 1, lastVisibleItem
+					+ mPrefetchDistance);
+		} else {
+			start = firstVisibleItem - 1;
+			end = Math.max(0, firstVisibleItem - mPrefetchDistance);
+		}
+
+		mPendingPositions.clear();
+		int step = scrollForward ? 1 : -1;
+		for (int position = start; scrollForward ? position <= end
+				: position >= end; position += step) {
+			mPendingPositions.add(position);
+		}
+
+		// cancel the prefetches which are not needed anymore
+		Iterator<PrefetchRequest> iterator = mRunningRequests.iterator();
+		while (iterator.hasNext()) {
+			PrefetchRequest request = iterator.next();
+			if (!mPendingPositions.remove(Integer.valueOf(request.position))) {
+				iterator.remove();
+				mImageLoader.cancel(request);
+			}
+		}
+		startPendingRequests();
+	}
+
+	/**
+	 * Cancel all the prefetches
+	 */
+	public void cancel() {
+		mPendingPositions.clear();
+		for (PrefetchRequest request : mRunningRequests) {
+			mImageLoader.cancel(request);
+		}
+		mRunningRequests.clear();
+		mLastFirstVisibleItem = -1;
+	}
+
+	@Override
+	public void onScrollStateChanged(AbsListView view, int scrollState) {
+		if (null != mDelegate) {
+			mDelegate.onScrollStateChanged(view, scrollState);
+		}
+	}
+
+	@Override
+	public void onScroll(AbsListView view, int firstVisibleItem,
+			int visibleItemCount, int totalItemCount) {
+		if (visibleItemCount > 0 && firstVisibleItem != mLastFirstVisibleItem) {
+			boolean scrollForward = firstVisibleItem >= mLastFirstVisibleItem;
+			mLastFirstVisibleItem = firstVisibleItem;
+			setVisibleRange(firstVisibleItem, firstVisibleItem
+					+ visibleItemCount - 1, totalItemCount, scrollForward);
+		}
+
+		if (null != mDelegate) {
+			mDelegate.onScroll(view, firstVisibleItem, visibleItemCount,
+					totalItemCount);
+		}
+	}
+
+	private void startPendingRequests() {
+		while (mRunningRequests.size() < mMaxConcurrentPrefetch
+				&& !mPendingPositions.isEmpty()) {
+			int position = mPendingPositions.removeFirst();
+			String url = mImageUrlProvider.getImageUrl(position);
+			if (null == url || url.length() <= 0) {
+				continue;
+			}
+
+			PrefetchRequest request = new PrefetchRequest(position);
+			mRunningRequests.add(request);
+			mImageLoader.loadImage(Uri.parse(url), mTargetWidth,
+					mTargetHeight, request, true,
+					AsyncImageLoader.PRIORITY_PREFETCH);
+		}
+	}
+
+	private void onRequestFinished(PrefetchRequest request) {
+		if (mRunningRequests.remove(request)) {
+			startPendingRequests();
+		}
+	}
+
+	private class PrefetchRequest implements OnImageLoadListener {
+		public final int position;
+
+		public PrefetchRequest(int position) {
+			this.position = position;
+		}
+
+		@Override
+		public void onLoadSuccess(Bitmap bitmap, String imageUrl,
+				boolean fromCache) {
+			// the bitmap is kept in the memory cache, it is not drawn here
+			mImageLoader.releaseBitmap(bitmap);
+			onRequestFinished(this);
+		}
+
+		@Override
+		public void onLoadError(String imageUrl) {
+			onRequestFinished(this);
+		}
+
+		@Override
+		public boolean onPreLoad(String imageUrl) {
+			return false;
+		}
+
+		@Override
+		public void onLoading(String imageUrl, long loadedLength,
+				long totalLength) {
+
+		}
+	}
+}
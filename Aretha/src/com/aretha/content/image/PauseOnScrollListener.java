@@ -0,0 +1,114 @@
+/* Copyright (c) 2011-2012 Tang Ke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aretha.content.image;
+
+import android.view.View;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+
+import com.aretha.widget.OnScrollStateChangeListener;
+import com.aretha.widget.ShelfGallery;
+import com.aretha.widget.Workspace;
+
+/**
+ * Pause the {@link AsyncImageLoader} while the view is scrolling, and resume
+ * it when the view settles. It can be set to {@link AbsListView},
+ * {@link Workspace} and {@link ShelfGallery}
+ * 
+ * @author Tank
+ * 
+ */
+public class PauseOnScrollListener implements OnScrollListener,
+		OnScrollStateChangeListener {
+	private AsyncImageLoader mImageLoader;
+	private boolean mPauseOnScroll;
+	private boolean mPauseOnFling;
+	private OnScrollListener mDelegate;
+
+	/**
+	 * Pause only during fling
+	 * 
+	 * @param imageLoader
+	 */
+	public PauseOnScrollListener(AsyncImageLoader imageLoader) {
+		this(imageLoader, false, true, null);
+	}
+
+	/**
+	 * @param imageLoader
+	 * @param pauseOnScroll
+	 *            pause while the user is dragging the view
+	 * @param pauseOnFling
+	 *            pause during fling
+	 * @param delegate
+	 *            the {@link OnScrollListener} of {@link AbsListView} which
+	 *            also want to receive the scroll events, can be null
+	 */
+	public PauseOnScrollListener(AsyncImageLoader imageLoader,
+			boolean pauseOnScroll, boolean pauseOnFling,
+			OnScrollListener delegate) {
+		if (null == imageLoader) {
+			throw new IllegalArgumentException("imageLoader can not be null");
+		}
+		mImageLoader = imageLoader;
+		mPauseOnScroll = pauseOnScroll;
+		mPauseOnFling = pauseOnFling;
+		mDelegate = delegate;
+	}
+
+	@Override
+	public void onScrollStateChanged(AbsListView view, int scrollState) {
+		applyScrollState(scrollState);
+		if (null != mDelegate) {
+			mDelegate.onScrollStateChanged(view, scrollState);
+		}
+	}
+
+	@Override
+	public void onScroll(AbsListView view, int firstVisibleItem,
+			int visibleItemCount, int totalItemCount) {
+		if (null != mDelegate) {
+			mDelegate.onScroll(view, firstVisibleItem, visibleItemCount,
+					totalItemCount);
+		}
+	}
+
+	@Override
+	public void onScrollStateChanged(View view, int scrollState) {
+		applyScrollState(scrollState);
+	}
+
+	private void applyScrollState(int scrollState) {
+		switch (scrollState) {
+		case SCROLL_STATE_IDLE:
+			mImageLoader.resume();
+			break;
+		case SCROLL_STATE_TOUCH_SCROLL:
+			if (mPauseOnScroll) {
+				mImageLoader.pause();
+			} else {
+				mImageLoader.resume();
+			}
+			break;
+		case SCROLL_STATE_FLING:
+			if (mPauseOnFling) {
+				mImageLoader.pause();
+			} else {
+				mImageLoader.resume();
+			}
+			break;
+		}
+	}
+}
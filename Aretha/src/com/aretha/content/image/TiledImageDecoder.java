@@ -0,0 +1,395 @@
+/* Copyright (c) 2011-2012 Tang Ke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aretha.content.image;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory.Options;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+/**
+ * Decode a very large image, such as a map or a scanned page, by tiles. Only
+ * the tiles in the visible area are decoded at the sample size of current
+ * zoom level, and the decoded tiles are kept in a bounded {@link TileCache}.
+ * Unlike {@link AsyncImageLoader#readCachedBitmap(String, int, int)}, the
+ * whole image is never decoded, so it will not run out of memory or look
+ * blurry when zoomed in
+ * 
+ * <p>
+ * It is based on {@link BitmapRegionDecoder}, which is available since
+ * Gingerbread MR1, check {@link #isSupported()} before use
+ * </p>
+ * 
+ * @author Tank
+ */
+public class TiledImageDecoder {
+	private final static String LOG_TAG = "TiledImageDecoder";
+
+	/**
+	 * Default width and height of the tile
+	 */
+	public final static int DEFAULT_TILE_SIZE = 256;
+
+	private final static long DECODE_THREAD_KEEP_ALIVE_SECONDS = 60L;
+
+	/**
+	 * Shared by all the decoders, the tiles are decoded one by one
+	 */
+	private final static ExecutorService sDecodeExecutor = new ThreadPoolExecutor(
+			0, 1, DECODE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>());
+
+	/**
+	 * Identify the tiles of each decoder in the shared {@link TileCache}
+	 */
+	private final static AtomicInteger sNextId = new AtomicInteger();
+
+	private final int mId = sNextId.getAndIncrement();
+	private final BitmapRegionDecoder mDecoder;
+	/**
+	 * held by the decode and {@link #recycle()}, the decoder will not be
+	 * recycled in the middle of a decode
+	 */
+	private final Object mDecodeLock = new Object();
+	private volatile boolean mIsRecycled;
+	private final int mWidth;
+	private final int mHeight;
+	private int mTileSize = DEFAULT_TILE_SIZE;
+	private TileCache mTileCache;
+
+	/**
+	 * increased when new tiles are requested, the tiles requested before are
+	 * not needed anymore
+	 */
+	private final AtomicInteger mGeneration = new AtomicInteger();
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Listen the tiles decoded by
+	 * {@link TiledImageDecoder#loadTiles(Rect, int, OnTileLoadListener)},
+	 * invoked on the main thread
+	 */
+	public interface OnTileLoadListener {
+		public void onTileLoaded(int sampleSize, int column, int row,
+				Bitmap tile);
+	}
+
+	private TiledImageDecoder(BitmapRegionDecoder decoder) {
+		mDecoder = decoder;
+		mWidth = decoder.getWidth();
+		mHeight = decoder.getHeight();
+		mTileCache = new TileCache(TileCache.getDefaultMaxSize());
+	}
+
+	public static boolean isSupported() {
+		return Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1;
+	}
+
+	/**
+	 * @param fileDescriptor
+	 *            descriptor of a JPEG or PNG image
+	 * @return
+	 * @throws IOException
+	 *             the image can not be decoded
+	 */
+	public static TiledImageDecoder newInstance(FileDescriptor fileDescriptor)
+			throws IOException {
+		// shareable, the decoder reads the file on demand instead of copying
+		// it into memory
+		return new TiledImageDecoder(BitmapRegionDecoder.newInstance(
+				fileDescriptor, true));
+	}
+
+	/**
+	 * @param inputStream
+	 *            stream of a JPEG or PNG image, it will be read at once
+	 * @return
+	 * @throws IOException
+	 *             the image can not be decoded
+	 */
+	public static TiledImageDecoder newInstance(InputStream inputStream)
+			throws IOException {
+		return new TiledImageDecoder(BitmapRegionDecoder.newInstance(
+				inputStream, false));
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * @param tileSize
+	 *            width and height of the decoded tile in pixels
+	 */
+	public void setTileSize(int tileSize) {
+		if (tileSize <= 0) {
+			throw new IllegalArgumentException("tileSize must be positive");
+		}
+		mTileSize = tileSize;
+		evictTiles();
+	}
+
+	public int getTileSize() {
+		return mTileSize;
+	}
+
+	/**
+	 * Share a cache between the decoders, or change the size of the cache
+	 * 
+	 * @param tileCache
+	 */
+	public void setTileCache(TileCache tileCache) {
+		if (null == tileCache) {
+			throw new IllegalArgumentException("tileCache can not be null");
+		}
+		mTileCache = tileCache;
+	}
+
+	public TileCache getTileCache() {
+		return mTileCache;
+	}
+
+	/**
+	 * Compute the power of two sample size of the zoom level, the decoded
+	 * tiles will not be smaller than they are drawn
+	 * 
+	 * @param scale
+	 *            scale of the image to draw, 1 for the original size
+	 * @return
+	 */
+	public static int computeSampleSize(float scale) {
+		int sampleSize = 1;
+		while (scale > 0 && scale * sampleSize * 2 <= 1) {
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+
+	public int getColumnCount(int sampleSize) {
+		final int tileWidth = mTileSize * sampleSize;
+		return (mWidth + tileWidth - 1) / tileWidth;
+	}
+
+	public int getRowCount(int sampleSize) {
+		final int tileHeight = mTileSize * sampleSize;
+		return (mHeight + tileHeight - 1) / tileHeight;
+	}
+
+	/**
+	 * Get the area of the tile in the image
+	 * 
+	 * @param sampleSize
+	 * @param column
+	 * @param row
+	 * @param outRect
+	 *            to receive the area
+	 * @return outRect
+	 */
+	public Rect getTileRect(int sampleSize, int column, int row, Rect outRect) {
+		final int size = mTileSize * sampleSize;
+		outRect.set(column * size, row * size,
+				Math.min(mWidth, (column + 1) * size),
+				Math.min(mHeight, (row + 1) * size));
+		return outRect;
+	}
+
+	/**
+	 * @return the decoded tile, or null if it is not in the cache
+	 */
+	public Bitmap getCachedTile(int sampleSize, int column, int row) {
+		return mTileCache.get(generateKey(sampleSize, column, row));
+	}
+
+	/**
+	 * Decode the tile on current thread, the cached one will be returned if
+	 * exists
+	 * 
+	 * @param sampleSize
+	 * @param column
+	 * @param row
+	 * @return null if the tile can not be decoded
+	 */
+	public Bitmap decodeTile(int sampleSize, int column, int row) {
+		final String key = generateKey(sampleSize, column, row);
+		Bitmap tile = mTileCache.get(key);
+		if (null != tile) {
+			return tile;
+		}
+
+		Rect tileRect = getTileRect(sampleSize, column, row, new Rect());
+		if (tileRect.isEmpty()) {
+			return null;
+		}
+		Options decodeOptions = new Options();
+		decodeOptions.inSampleSize = sampleSize;
+		synchronized (mDecodeLock) {
+			if (mIsRecycled) {
+				return null;
+			}
+			try {
+				tile = mDecoder.decodeRegion(tileRect, decodeOptions);
+			} catch (OutOfMemoryError e) {
+				Log.d(LOG_TAG, "Out of memory when decode tile");
+				mTileCache.evictAll();
+				return null;
+			}
+			if (null != tile) {
+				mTileCache.put(key, tile);
+			}
+		}
+		return tile;
+	}
+
+	/**
+	 * Decode the tiles in the visible area in background, the tiles requested
+	 * by previous call and not decoded yet will be dropped. The cached tiles
+	 * are not delivered again, get them by
+	 * {@link #getCachedTile(int, int, int)}
+	 * 
+	 * @param visibleRect
+	 *            the visible area in the image
+	 * @param sampleSize
+	 *            sample size of current zoom level
+	 * @param listener
+	 */
+	public void loadTiles(Rect visibleRect, final int sampleSize,
+			final OnTileLoadListener listener) {
+		final int generation = mGeneration.incrementAndGet();
+		final int size = mTileSize * sampleSize;
+		final int firstColumn = Math.max(0, visibleRect.left / size);
+		final int firstRow = Math.max(0, visibleRect.top / size);
+		final int lastColumn = Math.min(getColumnCount(sampleSize) - 1,
+				(visibleRect.right - 1) / size);
+		final int lastRow = Math.min(getRowCount(sampleSize) - 1,
+				(visibleRect.bottom - 1) / size);
+
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				if (null != getCachedTile(sampleSize, column, row)) {
+					continue;
+				}
+				final int tileColumn = column;
+				final int tileRow = row;
+				sDecodeExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						// scrolled or zoomed, the tile is not visible anymore
+						if (generation != mGeneration.get()) {
+							return;
+						}
+						final Bitmap tile = decodeTile(sampleSize, tileColumn,
+								tileRow);
+						if (null == tile || null == listener) {
+							return;
+						}
+						mHandler.post(new Runnable() {
+							@Override
+							public void run() {
+								// decoded before recycled, drop it
+								if (mIsRecycled) {
+									return;
+								}
+								listener.onTileLoaded(sampleSize, tileColumn,
+										tileRow, tile);
+							}
+						});
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Drop the pending tiles, release the decoder and the cached tiles. The
+	 * decoder can not be used anymore. Wait for the tile being decoded, the
+	 * tiles not delivered yet will be dropped
+	 */
+	public void recycle() {
+		synchronized (mDecodeLock) {
+			mIsRecycled = true;
+			mGeneration.incrementAndGet();
+			mDecoder.recycle();
+			evictTiles();
+		}
+	}
+
+	/**
+	 * Remove the tiles of this decoder only, the cache may be shared with
+	 * the other decoders
+	 */
+	private void evictTiles() {
+		final String keyPrefix = mId + "/";
+		for (String key : mTileCache.snapshot().keySet()) {
+			if (key.startsWith(keyPrefix)) {
+				mTileCache.remove(key);
+			}
+		}
+	}
+
+	private String generateKey(int sampleSize, int column, int row) {
+		return new StringBuilder(24).append(mId).append('/')
+				.append(sampleSize).append('/').append(column).append('/')
+				.append(row).toString();
+	}
+
+	/**
+	 * A memory cache of the decoded tiles, bounded by the byte size of the
+	 * tiles
+	 */
+	public static class TileCache extends LruCache<String, Bitmap> {
+		private final static int DEFAULT_MEMORY_CLASS_DIVIDER = 8;
+
+		/**
+		 * @param maxSize
+		 *            max bytes of the cached tiles
+		 */
+		public TileCache(int maxSize) {
+			super(maxSize);
+		}
+
+		/**
+		 * Default size of the cache, 1/8 of the max memory of current
+		 * application
+		 * 
+		 * @return
+		 */
+		public static int getDefaultMaxSize() {
+			return (int) (Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_CLASS_DIVIDER);
+		}
+
+		@Override
+		protected int sizeOf(String key, Bitmap value) {
+			return value.getRowBytes() * value.getHeight();
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package com.aretha.content.image.loader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.net.Uri;
+
+/**
+ * Read the image in the assets of the application, such as
+ * file:///android_asset/image.png
+ * 
+ * @author Tank
+ */
+public class AssetImageLoader implements ImageLoader {
+	private final static String ASSET_SEGMENT = "android_asset";
+
+	@Override
+	public boolean canLoad(Uri uri) {
+		if (!"file".equals(uri.getScheme())) {
+			return false;
+		}
+		List<String> segments = uri.getPathSegments();
+		return segments.size() > 1 && ASSET_SEGMENT.equals(segments.get(0));
+	}
+
+	@Override
+	public boolean isLocal() {
+		return true;
+	}
+
+	@Override
+	public ImageSource createSource(Context context, Uri uri) {
+		final AssetManager assetManager = context.getAssets();
+		// skip the leading "/android_asset/"
+		final String path = uri.getPath().substring(
+				ASSET_SEGMENT.length() + 2);
+		return new ImageSource() {
+			@Override
+			protected InputStream onOpen() throws IOException {
+				return assetManager.open(path);
+			}
+		};
+	}
+
+}
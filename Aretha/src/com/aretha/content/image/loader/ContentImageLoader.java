@@ -0,0 +1,46 @@
+package com.aretha.content.image.loader;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+
+/**
+ * Read the image from the {@link android.content.ContentProvider} or the
+ * resources, such as the photos in the media store
+ * 
+ * @author Tank
+ */
+public class ContentImageLoader implements ImageLoader {
+
+	@Override
+	public boolean canLoad(Uri uri) {
+		String scheme = uri.getScheme();
+		return ContentResolver.SCHEME_CONTENT.equals(scheme)
+				|| ContentResolver.SCHEME_ANDROID_RESOURCE.equals(scheme);
+	}
+
+	@Override
+	public boolean isLocal() {
+		return true;
+	}
+
+	@Override
+	public ImageSource createSource(Context context, final Uri uri) {
+		final ContentResolver contentResolver = context.getContentResolver();
+		return new ImageSource() {
+			@Override
+			protected InputStream onOpen() throws IOException {
+				InputStream inputStream = contentResolver.openInputStream(uri);
+				if (null == inputStream) {
+					throw new FileNotFoundException(uri.toString());
+				}
+				return inputStream;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,40 @@
+package com.aretha.content.image.loader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.content.Context;
+import android.net.Uri;
+
+/**
+ * Read the image file on the device, such as file:///sdcard/image.jpg
+ * 
+ * @author Tank
+ */
+public class FileImageLoader implements ImageLoader {
+
+	@Override
+	public boolean canLoad(Uri uri) {
+		return "file".equals(uri.getScheme()) && null != uri.getPath();
+	}
+
+	@Override
+	public boolean isLocal() {
+		return true;
+	}
+
+	@Override
+	public ImageSource createSource(Context context, Uri uri) {
+		final File file = new File(uri.getPath());
+		return new ImageSource() {
+			@Override
+			protected InputStream onOpen() throws IOException {
+				setLength(file.length());
+				return new FileInputStream(file);
+			}
+		};
+	}
+
+}
@@ -1,7 +1,36 @@
 package com.aretha.content.image.loader;
 
-import android.graphics.Bitmap;
+import android.content.Context;
+import android.net.Uri;
 
+/**
+ * Fetch the image of the {@link Uri} it supports, registered to the
+ * {@link com.aretha.content.image.AsyncImageLoader}
+ * 
+ * @author Tank
+ */
 public interface ImageLoader {
-	public Bitmap loadImage();
+	/**
+	 * @param uri
+	 * @return true if the image can be fetched by this loader
+	 */
+	public boolean canLoad(Uri uri);
+
+	/**
+	 * The local image is decoded from its source directly, the remote one is
+	 * saved to the disk cache before decoded
+	 * 
+	 * @return true if the image is on the device
+	 */
+	public boolean isLocal();
+
+	/**
+	 * Create the source of the image, which is opened later on the worker
+	 * thread
+	 * 
+	 * @param context
+	 * @param uri
+	 * @return
+	 */
+	public ImageSource createSource(Context context, Uri uri);
 }
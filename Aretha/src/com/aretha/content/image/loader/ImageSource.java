@@ -0,0 +1,52 @@
+package com.aretha.content.image.loader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.aretha.util.Utils;
+
+/**
+ * The bytes of one image, it is opened once and closed by the reader
+ * 
+ * @author Tank
+ */
+public abstract class ImageSource implements Closeable {
+	private InputStream mInputStream;
+	private long mLength = -1;
+
+	/**
+	 * Open the stream of the image, it may block on the network
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public final InputStream open() throws IOException {
+		mInputStream = onOpen();
+		return mInputStream;
+	}
+
+	protected abstract InputStream onOpen() throws IOException;
+
+	/**
+	 * @return bytes of the image, -1 if unknown
+	 */
+	public long getLength() {
+		return mLength;
+	}
+
+	protected void setLength(long length) {
+		mLength = length;
+	}
+
+	/**
+	 * Stop the blocking {@link #open()} or read, invoked from another thread
+	 */
+	public void abort() {
+	}
+
+	@Override
+	public void close() {
+		Utils.closeQuietly(mInputStream);
+	}
+}
@@ -1,12 +1,60 @@
 package com.aretha.content.image.loader;
 
-import android.graphics.Bitmap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
 
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.aretha.net.HttpConnectionHelper;
+
+/**
+ * Download the image of http and https by {@link HttpConnectionHelper}
+ * 
+ * @author Tank
+ */
 public class RemoteImageLoader implements ImageLoader {
 
 	@Override
-	public Bitmap loadImage() {
-		return null;
+	public boolean canLoad(Uri uri) {
+		String scheme = uri.getScheme();
+		return "http".equalsIgnoreCase(scheme)
+				|| "https".equalsIgnoreCase(scheme);
+	}
+
+	@Override
+	public boolean isLocal() {
+		return false;
+	}
+
+	@Override
+	public ImageSource createSource(Context context, Uri uri) {
+		final HttpConnectionHelper connection = HttpConnectionHelper
+				.getInstance();
+		final HttpUriRequest request = connection.obtainHttpGetRequest(
+				URI.create(uri.toString()), null);
+		return new ImageSource() {
+			@Override
+			protected InputStream onOpen() throws IOException {
+				HttpResponse response = connection.executeOrThrow(request);
+				HttpEntity entity = response.getEntity();
+				if (null == entity) {
+					throw new IOException("No entity");
+				}
+				setLength(entity.getContentLength());
+				return entity.getContent();
+			}
+
+			@Override
+			public void abort() {
+				request.abort();
+			}
+		};
 	}
 
 }
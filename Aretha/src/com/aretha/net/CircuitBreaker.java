@@ -0,0 +1,187 @@
+/* Copyright (c) 2011-2012 Tang Ke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aretha.net;
+
+import android.os.SystemClock;
+
+/**
+ * Stop sending requests to an unhealthy host for a while. The circuit is
+ * opened after the host failed several times in a row, then the requests fail
+ * fast. When the open duration passes, one trial request is let through, the
+ * circuit is closed if it succeeds, or opened again
+ * 
+ * @author Tank
+ */
+public class CircuitBreaker {
+	/**
+	 * The host is healthy, all the requests are let through
+	 */
+	public final static int STATE_CLOSED = 0;
+
+	/**
+	 * The host is unhealthy, all the requests fail fast
+	 */
+	public final static int STATE_OPEN = 1;
+
+	/**
+	 * One trial request is let through to check the host
+	 */
+	public final static int STATE_HALF_OPEN = 2;
+
+	private final String mHost;
+	private final int mFailureThreshold;
+	private final long mOpenDurationMillis;
+
+	private int mState = STATE_CLOSED;
+	private int mFailureCount;
+	private long mOpenedAtMillis;
+	private boolean mIsTrialInFlight;
+
+	private int mRejectedCount;
+	private int mOpenedCount;
+
+	/**
+	 * @param host
+	 * @param failureThreshold
+	 *            failures in a row to open the circuit
+	 * @param openDurationMillis
+	 *            how long the requests fail fast
+	 */
+	public CircuitBreaker(String host, int failureThreshold,
+			long openDurationMillis) {
+		if (failureThreshold <= 0) {
+			throw new IllegalArgumentException("failureThreshold <= 0");
+		}
+		mHost = host;
+		mFailureThreshold = failureThreshold;
+		mOpenDurationMillis = openDurationMillis;
+	}
+
+	/**
+	 * Check whether a request can be sent now, the caller must report the
+	 * result by {@link #onSuccess()}, {@link #onFailure()} or
+	 * {@link #onCanceled()} if it is allowed
+	 * 
+	 * @return false if the request should fail fast
+	 */
+	public synchronized boolean allowRequest() {
+		switch (mState) {
+		case STATE_OPEN:
+			if (SystemClock.elapsedRealtime() - mOpenedAtMillis < mOpenDurationMillis) {
+				mRejectedCount++;
+				return false;
+			}
+			mState = STATE_HALF_OPEN;
+			mIsTrialInFlight = true;
+			return true;
+		case STATE_HALF_OPEN:
+			if (mIsTrialInFlight) {
+				mRejectedCount++;
+				return false;
+			}
+			mIsTrialInFlight = true;
+			return true;
+		case STATE_CLOSED:
+		default:
+			return true;
+		}
+	}
+
+	public synchronized void onSuccess() {
+		mIsTrialInFlight = false;
+		mFailureCount = 0;
+		mState = STATE_CLOSED;
+	}
+
+	public synchronized void onFailure() {
+		mIsTrialInFlight = false;
+		mFailureCount++;
+		if (STATE_HALF_OPEN == mState || mFailureCount >= mFailureThreshold) {
+			open();
+		}
+	}
+
+	/**
+	 * The request is canceled before it tells whether the host is healthy
+	 */
+	public synchronized void onCanceled() {
+		mIsTrialInFlight = false;
+	}
+
+	private void open() {
+		if (STATE_OPEN != mState) {
+			mOpenedCount++;
+		}
+		mState = STATE_OPEN;
+		mOpenedAtMillis = SystemClock.elapsedRealtime();
+	}
+
+	/**
+	 * Close the circuit, such as the network is changed
+	 */
+	public synchronized void reset() {
+		mState = STATE_CLOSED;
+		mFailureCount = 0;
+		mIsTrialInFlight = false;
+	}
+
+	public String getHost() {
+		return mHost;
+	}
+
+	/**
+	 * One of {@link #STATE_CLOSED}, {@link #STATE_OPEN} and
+	 * {@link #STATE_HALF_OPEN}
+	 * 
+	 * @return
+	 */
+	public synchronized int getState() {
+		return mState;
+	}
+
+	/**
+	 * Failures in a row
+	 * 
+	 * @return
+	 */
+	public synchronized int getFailureCount() {
+		return mFailureCount;
+	}
+
+	/**
+	 * Requests failed fast
+	 * 
+	 * @return
+	 */
+	public synchronized int getRejectedCount() {
+		return mRejectedCount;
+	}
+
+	/**
+	 * Times of the circuit opened
+	 * 
+	 * @return
+	 */
+	public synchronized int getOpenedCount() {
+		return mOpenedCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(
+				"CircuitBreaker[host=%s,state=%d,failures=%d,rejected=%d,opened=%d]",
+				mHost, mState, mFailureCount, mRejectedCount, mOpenedCount);
+	}
+}
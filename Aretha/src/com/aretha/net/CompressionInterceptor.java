@@ -0,0 +1,305 @@
+/* Copyright (c) 2011-2012 Tang Ke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aretha.net;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Ask the server for the gzip or deflate compressed response, and decompress
+ * the entity while it is read. Disabled by default
+ * 
+ * @author Tank
+ */
+public class CompressionInterceptor implements HttpRequestInterceptor,
+		HttpResponseInterceptor {
+	private final static String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+	private final static String HEADER_CONTENT_ENCODING = "Content-Encoding";
+	private final static String HEADER_CONTENT_LENGTH = "Content-Length";
+	private final static String ENCODING_GZIP = "gzip";
+	private final static String ENCODING_DEFLATE = "deflate";
+
+	private volatile boolean mIsEnabled;
+	private volatile OnDecompressListener mOnDecompressListener;
+
+	public void setEnabled(boolean enabled) {
+		mIsEnabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return mIsEnabled;
+	}
+
+	/**
+	 * Listen to the bytes of every decompressed response
+	 * 
+	 * @param onDecompressListener
+	 */
+	public void setOnDecompressListener(
+			OnDecompressListener onDecompressListener) {
+		mOnDecompressListener = onDecompressListener;
+	}
+
+	public OnDecompressListener getOnDecompressListener() {
+		return mOnDecompressListener;
+	}
+
+	@Override
+	public void process(HttpRequest request, HttpContext context)
+			throws HttpException, IOException {
+		if (!mIsEnabled || request.containsHeader(HEADER_ACCEPT_ENCODING)) {
+			return;
+		}
+		request.addHeader(HEADER_ACCEPT_ENCODING, ENCODING_GZIP + ", "
+				+ ENCODING_DEFLATE);
+	}
+
+	@Override
+	public void process(HttpResponse response, HttpContext context)
+			throws HttpException, IOException {
+		HttpEntity entity = response.getEntity();
+		if (!mIsEnabled || null == entity) {
+			return;
+		}
+		Header encodingHeader = entity.getContentEncoding();
+		if (null == encodingHeader) {
+			return;
+		}
+		String encoding = encodingHeader.getValue().trim();
+		boolean isGzip = ENCODING_GZIP.equalsIgnoreCase(encoding);
+		if (!isGzip && !ENCODING_DEFLATE.equalsIgnoreCase(encoding)) {
+			return;
+		}
+
+		String uri = null;
+		Object request = context.getAttribute(ExecutionContext.HTTP_REQUEST);
+		if (request instanceof HttpRequest) {
+			uri = ((HttpRequest) request).getRequestLine().getUri();
+		}
+		response.setEntity(new DecompressingEntity(entity, isGzip, uri));
+		// the headers describe the compressed entity
+		response.removeHeaders(HEADER_CONTENT_ENCODING);
+		response.removeHeaders(HEADER_CONTENT_LENGTH);
+	}
+
+	/**
+	 * Decompress the wrapped entity while it is read, the length is unknown
+	 */
+	private class DecompressingEntity extends HttpEntityWrapper {
+		private final boolean mIsGzip;
+		private final String mUri;
+		private InputStream mContent;
+
+		public DecompressingEntity(HttpEntity entity, boolean isGzip,
+				String uri) {
+			super(entity);
+			mIsGzip = isGzip;
+			mUri = uri;
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			if (null != mContent) {
+				return mContent;
+			}
+			CountingInputStream compressedStream = new CountingInputStream(
+					wrappedEntity.getContent(), null);
+			InputStream decompressedStream;
+			if (mIsGzip) {
+				decompressedStream = new GZIPInputStream(compressedStream);
+			} else {
+				decompressedStream = openInflaterStream(compressedStream);
+			}
+			mContent = new CountingInputStream(decompressedStream,
+					compressedStream) {
+				@Override
+				protected void onFinish(long decompressedBytes,
+						long compressedBytes) {
+					OnDecompressListener listener = mOnDecompressListener;
+					if (null != listener) {
+						listener.onDecompressed(mUri, compressedBytes,
+								decompressedBytes);
+					}
+				}
+			};
+			return mContent;
+		}
+
+		@Override
+		public long getContentLength() {
+			return -1;
+		}
+
+		@Override
+		public Header getContentEncoding() {
+			return null;
+		}
+
+		@Override
+		public void writeTo(OutputStream outputStream) throws IOException {
+			InputStream inputStream = getContent();
+			try {
+				byte[] buffer = new byte[8 * 1024];
+				int read;
+				while ((read = inputStream.read(buffer)) != -1) {
+					outputStream.write(buffer, 0, read);
+				}
+			} finally {
+				inputStream.close();
+			}
+		}
+	}
+
+	/**
+	 * Most of the servers wrap the deflate stream by zlib, but some of them
+	 * send the raw one, tell them by the zlib header
+	 */
+	private static InputStream openInflaterStream(InputStream inputStream)
+			throws IOException {
+		PushbackInputStream pushbackStream = new PushbackInputStream(
+				inputStream, 2);
+		byte[] header = new byte[2];
+		int read = 0;
+		while (read < header.length) {
+			int count = pushbackStream.read(header, read, header.length - read);
+			if (count == -1) {
+				break;
+			}
+			read += count;
+		}
+		pushbackStream.unread(header, 0, read);
+
+		int cmf = header[0] & 0xff;
+		int flg = header[1] & 0xff;
+		boolean isZlib = read == header.length && (cmf & 0x0f) == 8
+				&& ((cmf << 8) | flg) % 31 == 0;
+		return new InflaterInputStream(pushbackStream, new Inflater(!isZlib));
+	}
+
+	/**
+	 * Count the bytes read, notify once at the end of the stream or when it
+	 * is closed
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private final CountingInputStream mSourceStream;
+		private long mCount;
+		private boolean mIsFinished;
+
+		public CountingInputStream(InputStream inputStream,
+				CountingInputStream sourceStream) {
+			super(inputStream);
+			mSourceStream = sourceStream;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = super.read();
+			if (read == -1) {
+				finish();
+			} else {
+				mCount++;
+			}
+			return read;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int count)
+				throws IOException {
+			int read = super.read(buffer, offset, count);
+			if (read == -1) {
+				finish();
+			} else {
+				mCount += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long count) throws IOException {
+			long skipped = super.skip(count);
+			mCount += skipped;
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			finish();
+			super.close();
+		}
+
+		private void finish() {
+			if (mIsFinished) {
+				return;
+			}
+			mIsFinished = true;
+			onFinish(mCount, null == mSourceStream ? mCount
+					: mSourceStream.mCount);
+		}
+
+		/**
+		 * @param count
+		 *            bytes read from this stream
+		 * @param sourceCount
+		 *            bytes read from the source stream
+		 */
+		protected void onFinish(long count, long sourceCount) {
+		}
+	}
+
+	/**
+	 * Report the compression of the response, the ratio is
+	 * decompressedBytes / compressedBytes, and the bytes saved on the network
+	 * is decompressedBytes - compressedBytes
+	 * 
+	 * @author Tank
+	 */
+	public interface OnDecompressListener {
+		/**
+		 * Invoked when the response is read to the end or closed, on the
+		 * thread reading it
+		 * 
+		 * @param uri
+		 *            uri of the request
+		 * @param compressedBytes
+		 *            bytes received
+		 * @param decompressedBytes
+		 *            bytes read after decompressed
+		 */
+		public void onDecompressed(String uri, long compressedBytes,
+				long decompressedBytes);
+	}
+}
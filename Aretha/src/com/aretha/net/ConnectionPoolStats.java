@@ -0,0 +1,74 @@
+/* Copyright (c) 2011-2012 Tang Ke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aretha.net;
+
+/**
+ * A snapshot of the connection pool of {@link HttpConnectionHelper}
+ * 
+ * @author Tank
+ */
+public class ConnectionPoolStats {
+	private final int mLeased;
+	private final int mAvailable;
+	private final int mPending;
+	private final int mMaxTotal;
+
+	public ConnectionPoolStats(int leased, int available, int pending,
+			int maxTotal) {
+		mLeased = leased;
+		mAvailable = available;
+		mPending = pending;
+		mMaxTotal = maxTotal;
+	}
+
+	/**
+	 * Connections which are executing the requests
+	 * 
+	 * @return
+	 */
+	public int getLeased() {
+		return mLeased;
+	}
+
+	/**
+	 * Idle connections which are kept alive to be reused
+	 * 
+	 * @return
+	 */
+	public int getAvailable() {
+		return mAvailable;
+	}
+
+	/**
+	 * Requests waiting for a connection, because the limit of the total or
+	 * the route is reached
+	 * 
+	 * @return
+	 */
+	public int getPending() {
+		return mPending;
+	}
+
+	public int getMaxTotal() {
+		return mMaxTotal;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"ConnectionPoolStats[leased=%d,available=%d,pending=%d,maxTotal=%d]",
+				mLeased, mAvailable, mPending, mMaxTotal);
+	}
+}
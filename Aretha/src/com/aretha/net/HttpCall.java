@@ -0,0 +1,118 @@
+/* Copyright (c) 2011-2012 Tang Ke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aretha.net;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * A request executed by {@link HttpConnectionHelper#executeAsync}. The
+ * response can be waited by {@link #get()}, or delivered to the
+ * {@link OnResponseListener}. {@link #get()} throws the
+ * {@link java.util.concurrent.ExecutionException} caused by the
+ * {@link HttpExecuteException} if it failed
+ * 
+ * @author Tank
+ */
+public class HttpCall extends FutureTask<HttpResponse> {
+	private final HttpUriRequest mRequest;
+	private final OnResponseListener mOnResponseListener;
+
+	HttpCall(final HttpConnectionHelper helper, final HttpUriRequest request,
+			OnResponseListener onResponseListener) {
+		super(new Callable<HttpResponse>() {
+			@Override
+			public HttpResponse call() throws Exception {
+				return helper.executeOrThrow(request);
+			}
+		});
+		mRequest = request;
+		mOnResponseListener = onResponseListener;
+	}
+
+	public HttpUriRequest getRequest() {
+		return mRequest;
+	}
+
+	/**
+	 * Cancel the call, the request in progress is aborted, whatever
+	 * mayInterruptIfRunning is
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean isCanceled = super.cancel(mayInterruptIfRunning);
+		if (isCanceled) {
+			// unblock the connecting or reading thread
+			mRequest.abort();
+		}
+		return isCanceled;
+	}
+
+	@Override
+	protected void done() {
+		final OnResponseListener listener = mOnResponseListener;
+		if (null == listener) {
+			return;
+		}
+		HttpResponse response;
+		try {
+			response = get();
+		} catch (CancellationException e) {
+			listener.onFailure(this, new HttpExecuteException(
+					HttpExecuteException.TYPE_CANCELED, "Canceled", null));
+			return;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			listener.onFailure(this,
+					cause instanceof HttpExecuteException ? (HttpExecuteException) cause
+							: new HttpExecuteException(
+									HttpExecuteException.TYPE_IO,
+									String.valueOf(cause), cause));
+			return;
+		} catch (InterruptedException e) {
+			// never happen, the call is done
+			return;
+		}
+		listener.onResponse(this, response);
+	}
+
+	/**
+	 * Receive the result of the {@link HttpCall}, invoked on the thread of
+	 * the dispatcher, so the response can be read there. If the call is
+	 * canceled, invoked on the thread which canceled it
+	 * 
+	 * @author Tank
+	 */
+	public interface OnResponseListener {
+		/**
+		 * @param call
+		 * @param response
+		 *            any status, the entity should be consumed
+		 */
+		public void onResponse(HttpCall call, HttpResponse response);
+
+		/**
+		 * @param call
+		 * @param e
+		 *            the failure, see {@link HttpExecuteException#getType()}
+		 */
+		public void onFailure(HttpCall call, HttpExecuteException e);
+	}
+}
@@ -20,28 +20,45 @@ import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.util.Collections;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpStatus;
 import org.apache.http.HttpVersion;
 import org.apache.http.NameValuePair;
-import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionOperator;
 import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.entity.FileEntity;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.AbstractConnPool;
+import org.apache.http.impl.conn.tsccm.ConnPoolByRoute;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
@@ -50,8 +67,12 @@ import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 
+import android.os.Process;
 import android.text.format.DateUtils;
 
+import com.aretha.net.CompressionInterceptor.OnDecompressListener;
+import com.aretha.net.HttpCall.OnResponseListener;
+
 /**
  * A helper class for http connection
  * 
@@ -62,19 +83,81 @@ public class HttpConnectionHelper implements HttpRequestInterceptor,
 	private final static int SECOND_IN_MILLIS = (int) DateUtils.SECOND_IN_MILLIS;
 	private final static int DEFAULT_CONNECTION_TIMEOUT = 20;
 
-	private final static int MAX_CONNECTION_NUMBER = 100;
+	/**
+	 * Default max number of the connections to all the hosts
+	 */
+	public final static int DEFAULT_MAX_TOTAL_CONNECTIONS = 100;
+
+	/**
+	 * Default max number of the connections to one host, such as the CDN of
+	 * the images
+	 */
+	public final static int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+
+	/**
+	 * Default time to keep the idle connection alive, if the server does not
+	 * tell it by the Keep-Alive header
+	 */
+	public final static long DEFAULT_KEEP_ALIVE_MILLIS = 30 * DateUtils.SECOND_IN_MILLIS;
+
+	/**
+	 * Default time before the idle connection is closed by the reaper
+	 */
+	public final static long DEFAULT_IDLE_TIMEOUT_MILLIS = 60 * DateUtils.SECOND_IN_MILLIS;
+
+	private final static long REAP_INTERVAL_MILLIS = 15 * DateUtils.SECOND_IN_MILLIS;
+
+	/**
+	 * Default number of the requests executed by {@link #executeAsync} at the
+	 * same time, the others are queued
+	 */
+	public final static int DEFAULT_MAX_ASYNC_REQUESTS = 8;
+
+	/**
+	 * Default failures in a row to open the circuit of a host
+	 */
+	public final static int DEFAULT_CIRCUIT_FAILURE_THRESHOLD = 5;
+
+	/**
+	 * Default time the requests to an unhealthy host fail fast
+	 */
+	public final static long DEFAULT_CIRCUIT_OPEN_MILLIS = 30 * DateUtils.SECOND_IN_MILLIS;
 
 	private static HttpConnectionHelper mHttpConnectionHelper;
 
 	private DefaultHttpClient mHttpClient;
 	private CookieStore mCookieStore;
 	private HttpParams mParams;
+	private StatsClientConnManager mConnManager;
+	private ConnPerRouteBean mConnPerRoute;
+	private CompressionInterceptor mCompressionInterceptor;
+	private volatile HttpResponseCache mResponseCache;
+	private ThreadPoolExecutor mDispatcher;
+	private int mMaxAsyncRequests = DEFAULT_MAX_ASYNC_REQUESTS;
+
+	private volatile RetryPolicy mRetryPolicy;
+	private volatile boolean mIsCircuitBreakerEnabled;
+	private volatile int mCircuitFailureThreshold = DEFAULT_CIRCUIT_FAILURE_THRESHOLD;
+	private volatile long mCircuitOpenMillis = DEFAULT_CIRCUIT_OPEN_MILLIS;
+	/**
+	 * the circuit breakers by host and port
+	 */
+	private final ConcurrentHashMap<String, CircuitBreaker> mCircuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+	private volatile long mKeepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+	private volatile long mIdleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
 
 	private OnExecuteListenner mOnExecuteListenner;
 
 	private HttpConnectionHelper() {
 		HttpParams params = mParams = new BasicHttpParams();
-		ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTION_NUMBER);
+		ConnManagerParams.setMaxTotalConnections(params,
+				DEFAULT_MAX_TOTAL_CONNECTIONS);
+		// the default limit of the route is 2, all the requests to one host
+		// will be queued behind two sockets
+		mConnPerRoute = new ConnPerRouteBean(
+				DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+		ConnManagerParams.setMaxConnectionsPerRoute(params, mConnPerRoute);
 		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
 
 		SchemeRegistry schemeRegistry = new SchemeRegistry();
@@ -87,8 +170,7 @@ public class HttpConnectionHelper implements HttpRequestInterceptor,
 		 * android SDK not support MultiThreadedHttpConnectionManager
 		 * temporarily, so use the {@link ThreadSafeClientConnManager} instead
 		 */
-		ThreadSafeClientConnManager threadSafeClientConnManager = new ThreadSafeClientConnManager(
-				params, schemeRegistry);
+		mConnManager = new StatsClientConnManager(params, schemeRegistry);
 
 		HttpConnectionParams.setConnectionTimeout(params,
 				DEFAULT_CONNECTION_TIMEOUT * SECOND_IN_MILLIS);
@@ -97,12 +179,27 @@ public class HttpConnectionHelper implements HttpRequestInterceptor,
 
 		HttpConnectionParams.setSocketBufferSize(params, 8192);
 
-		mHttpClient = new DefaultHttpClient(threadSafeClientConnManager, params);
+		mHttpClient = new DefaultHttpClient(mConnManager, params);
+		mHttpClient.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response,
+					HttpContext context) {
+				long duration = super.getKeepAliveDuration(response, context);
+				// not told by the server, do not keep it forever
+				return duration >= 0 ? duration : mKeepAliveMillis;
+			}
+		});
 
+		// decompress the response before it is delivered to the listener
+		mCompressionInterceptor = new CompressionInterceptor();
+		mHttpClient.addRequestInterceptor(mCompressionInterceptor);
+		mHttpClient.addResponseInterceptor(mCompressionInterceptor);
 		mHttpClient.addRequestInterceptor(this);
 		mHttpClient.addResponseInterceptor(this);
 
 		mCookieStore = mHttpClient.getCookieStore();
+
+		new IdleConnectionReaper().start();
 	}
 
 	/**
@@ -132,6 +229,111 @@ public class HttpConnectionHelper implements HttpRequestInterceptor,
 		HttpConnectionParams.setConnectionTimeout(mParams, timeout);
 	}
 
+	/**
+	 * Set the max number of the connections to all the hosts, applied to the
+	 * connections requested later
+	 * 
+	 * @param maxTotal
+	 */
+	public void setMaxTotalConnections(int maxTotal) {
+		ConnManagerParams.setMaxTotalConnections(mParams, maxTotal);
+	}
+
+	/**
+	 * Set the max number of the connections to one host, applied to the host
+	 * which is not connected yet
+	 * 
+	 * @param maxPerRoute
+	 */
+	public void setMaxConnectionsPerRoute(int maxPerRoute) {
+		mConnPerRoute.setDefaultMaxPerRoute(maxPerRoute);
+	}
+
+	/**
+	 * Set the max number of the connections to the host of the url, applied
+	 * if the host is not connected yet
+	 * 
+	 * @param url
+	 *            such as http://img.example.com
+	 * @param maxConnections
+	 */
+	public void setMaxConnectionsForHost(String url, int maxConnections) {
+		URI uri = URI.create(url);
+		HttpHost host = new HttpHost(uri.getHost(), uri.getPort(),
+				uri.getScheme());
+		mConnPerRoute.setMaxForRoute(new HttpRoute(host, null,
+				"https".equalsIgnoreCase(uri.getScheme())), maxConnections);
+	}
+
+	/**
+	 * Set how long the idle connection is kept alive, if the server does not
+	 * tell it by the Keep-Alive header
+	 * 
+	 * @param keepAliveMillis
+	 */
+	public void setKeepAliveDuration(long keepAliveMillis) {
+		mKeepAliveMillis = keepAliveMillis;
+	}
+
+	/**
+	 * Set how long the connection can be idle before it is closed by the
+	 * reaper, even if it is still kept alive
+	 * 
+	 * @param idleTimeoutMillis
+	 */
+	public void setIdleConnectionTimeout(long idleTimeoutMillis) {
+		mIdleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	/**
+	 * Ask the server for the gzip or deflate compressed response, which is
+	 * decompressed transparently while it is read
+	 * 
+	 * @param compressionEnabled
+	 */
+	public void setCompressionEnabled(boolean compressionEnabled) {
+		mCompressionInterceptor.setEnabled(compressionEnabled);
+	}
+
+	public boolean isCompressionEnabled() {
+		return mCompressionInterceptor.isEnabled();
+	}
+
+	/**
+	 * Listen to the compressed and decompressed bytes of every compressed
+	 * response
+	 * 
+	 * @param onDecompressListener
+	 */
+	public void setOnDecompressListener(
+			OnDecompressListener onDecompressListener) {
+		mCompressionInterceptor.setOnDecompressListener(onDecompressListener);
+	}
+
+	/**
+	 * Serve the GET requests from the disk cache if the response is still
+	 * fresh or not modified, null to disable it
+	 * 
+	 * @param responseCache
+	 */
+	public void setResponseCache(HttpResponseCache responseCache) {
+		mResponseCache = responseCache;
+	}
+
+	public HttpResponseCache getResponseCache() {
+		return mResponseCache;
+	}
+
+	/**
+	 * Get the leased, available and pending connections of the pool
+	 * 
+	 * @return
+	 */
+	public ConnectionPoolStats getConnectionPoolStats() {
+		return mConnManager.getStats(ConnManagerParams
+				.getMaxTotalConnections(mParams));
+	}
+
 	/**
 	 * Obtain a {@link HttpUriRequest} request
 	 * 
@@ -271,21 +473,321 @@ public class HttpConnectionHelper implements HttpRequestInterceptor,
 	}
 
 	/**
-	 * Execute a request
+	 * Execute a request, through the response cache if it is set
 	 * 
 	 * @param request
-	 * @return
+	 * @return null if failed
+	 * @see #executeOrThrow(HttpUriRequest)
 	 */
 	public HttpResponse execute(HttpUriRequest request) {
-		HttpResponse response = null;
 		try {
-			response = mHttpClient.execute(request);
-		} catch (ClientProtocolException e) {
+			return executeOrThrow(request);
+		} catch (HttpExecuteException e) {
 			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Same as {@link #execute(HttpUriRequest)}, but tell why it failed. The
+	 * request is retried by the {@link RetryPolicy}, and fails fast if the
+	 * circuit of the host is open
+	 * 
+	 * @param request
+	 * @return
+	 * @throws HttpExecuteException
+	 */
+	public HttpResponse executeOrThrow(HttpUriRequest request)
+			throws HttpExecuteException {
+		final RetryPolicy retryPolicy = mRetryPolicy;
+		final CircuitBreaker circuitBreaker = obtainCircuitBreaker(request);
+		int retryCount = 0;
+		while (true) {
+			if (null != circuitBreaker && !circuitBreaker.allowRequest()) {
+				throw new HttpExecuteException(
+						HttpExecuteException.TYPE_CIRCUIT_OPEN,
+						"Circuit open: " + circuitBreaker.getHost(), null);
+			}
+
+			HttpResponse response = null;
+			HttpExecuteException failure = null;
+			try {
+				response = executeOnce(request);
+			} catch (HttpExecuteException e) {
+				failure = e;
+			}
+			if (null != circuitBreaker) {
+				recordResult(circuitBreaker, response, failure);
+			}
+
+			long delay = -1;
+			if (null != retryPolicy && retryCount < retryPolicy.getMaxRetries()
+					&& retryPolicy.isRetryable(request)) {
+				delay = null == failure ? retryPolicy.computeDelay(retryCount,
+						response) : retryPolicy.computeDelay(retryCount,
+						failure);
+			}
+			if (delay < 0) {
+				if (null != failure) {
+					throw failure;
+				}
+				return response;
+			}
+
+			if (null != response) {
+				// release the connection before waiting
+				consumeQuietly(response);
+			}
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new HttpExecuteException(
+						HttpExecuteException.TYPE_CANCELED, "Interrupted", e);
+			}
+			retryCount++;
+		}
+	}
+
+	/**
+	 * The server errors, the timeout and the unreachable host are the
+	 * failures of the host
+	 */
+	private static void recordResult(CircuitBreaker circuitBreaker,
+			HttpResponse response, HttpExecuteException failure) {
+		if (null != response) {
+			if (response.getStatusLine().getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+				circuitBreaker.onFailure();
+			} else {
+				circuitBreaker.onSuccess();
+			}
+			return;
+		}
+		switch (failure.getType()) {
+		case HttpExecuteException.TYPE_CANCELED:
+		case HttpExecuteException.TYPE_PROTOCOL:
+			circuitBreaker.onCanceled();
+			break;
+		default:
+			circuitBreaker.onFailure();
+			break;
+		}
+	}
+
+	private static void consumeQuietly(HttpResponse response) {
+		HttpEntity entity = response.getEntity();
+		if (null == entity) {
+			return;
+		}
+		try {
+			entity.consumeContent();
 		} catch (IOException e) {
-			e.printStackTrace();
 		}
-		return response;
+	}
+
+	private HttpResponse executeOnce(HttpUriRequest request)
+			throws HttpExecuteException {
+		try {
+			final HttpResponseCache responseCache = mResponseCache;
+			if (null != responseCache) {
+				return responseCache.execute(this, request);
+			}
+			return executeOnNetwork(request);
+		} catch (IOException e) {
+			throw HttpExecuteException.wrap(e, request.isAborted());
+		}
+	}
+
+	/**
+	 * Execute a request without the response cache
+	 */
+	HttpResponse executeOnNetwork(HttpUriRequest request) throws IOException {
+		return mHttpClient.execute(request);
+	}
+
+	/**
+	 * Execute a request on the dispatcher, which runs at most
+	 * {@link #setMaxAsyncRequests(int)} requests at the same time and queues
+	 * the others, so the caller is not blocked
+	 * 
+	 * @param request
+	 * @param onResponseListener
+	 *            null if the result is got by {@link HttpCall#get()}
+	 * @return the call which can be canceled
+	 */
+	public HttpCall executeAsync(HttpUriRequest request,
+			OnResponseListener onResponseListener) {
+		HttpCall call = new HttpCall(this, request, onResponseListener);
+		try {
+			getDispatcher().execute(call);
+		} catch (RejectedExecutionException e) {
+			call.cancel(false);
+		}
+		return call;
+	}
+
+	/**
+	 * Same as {@link #executeAsync(HttpUriRequest, OnResponseListener)}, the
+	 * request fails with {@link HttpExecuteException#TYPE_TIMEOUT} if the
+	 * connection, a free connection of the pool, or the response data is
+	 * not got in time
+	 * 
+	 * @param request
+	 * @param timeoutMillis
+	 *            timeout of this request only
+	 * @param onResponseListener
+	 * @return
+	 */
+	public HttpCall executeAsync(HttpUriRequest request, int timeoutMillis,
+			OnResponseListener onResponseListener) {
+		HttpParams params = request.getParams();
+		HttpConnectionParams.setConnectionTimeout(params, timeoutMillis);
+		HttpConnectionParams.setSoTimeout(params, timeoutMillis);
+		ConnManagerParams.setTimeout(params, timeoutMillis);
+		return executeAsync(request, onResponseListener);
+	}
+
+	/**
+	 * Retry the failed idempotent requests, null to disable it. The waiting
+	 * {@link #executeAsync} call holds a thread of the dispatcher
+	 * 
+	 * @param retryPolicy
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		mRetryPolicy = retryPolicy;
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return mRetryPolicy;
+	}
+
+	/**
+	 * Fail the requests to an unhealthy host fast, see {@link CircuitBreaker}
+	 * 
+	 * @param circuitBreakerEnabled
+	 */
+	public void setCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+		mIsCircuitBreakerEnabled = circuitBreakerEnabled;
+	}
+
+	public boolean isCircuitBreakerEnabled() {
+		return mIsCircuitBreakerEnabled;
+	}
+
+	/**
+	 * Applied to the hosts which have no circuit breaker yet
+	 * 
+	 * @param failureThreshold
+	 *            failures in a row to open the circuit
+	 * @param openDurationMillis
+	 *            how long the requests fail fast
+	 */
+	public void setCircuitBreakerPolicy(int failureThreshold,
+			long openDurationMillis) {
+		if (failureThreshold <= 0) {
+			throw new IllegalArgumentException("failureThreshold <= 0");
+		}
+		mCircuitFailureThreshold = failureThreshold;
+		mCircuitOpenMillis = openDurationMillis;
+	}
+
+	/**
+	 * Get the circuit breaker of the host of the url, to monitor or reset it
+	 * 
+	 * @param url
+	 * @return null if no request has been sent to the host
+	 */
+	public CircuitBreaker getCircuitBreaker(String url) {
+		return mCircuitBreakers.get(getCircuitKey(URI.create(url)));
+	}
+
+	/**
+	 * All the circuit breakers by host and port
+	 * 
+	 * @return
+	 */
+	public Map<String, CircuitBreaker> getCircuitBreakers() {
+		return Collections.unmodifiableMap(mCircuitBreakers);
+	}
+
+	/**
+	 * @return null if the circuit breaker is disabled
+	 */
+	private CircuitBreaker obtainCircuitBreaker(HttpUriRequest request) {
+		if (!mIsCircuitBreakerEnabled || null == request.getURI().getHost()) {
+			return null;
+		}
+		String key = getCircuitKey(request.getURI());
+		CircuitBreaker circuitBreaker = mCircuitBreakers.get(key);
+		if (null == circuitBreaker) {
+			circuitBreaker = new CircuitBreaker(key, mCircuitFailureThreshold,
+					mCircuitOpenMillis);
+			CircuitBreaker existing = mCircuitBreakers.putIfAbsent(key,
+					circuitBreaker);
+			if (null != existing) {
+				circuitBreaker = existing;
+			}
+		}
+		return circuitBreaker;
+	}
+
+	private static String getCircuitKey(URI uri) {
+		int port = uri.getPort();
+		if (port < 0) {
+			port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+		}
+		return uri.getHost() + ":" + port;
+	}
+
+	/**
+	 * Set the max number of the requests executed by {@link #executeAsync}
+	 * at the same time
+	 * 
+	 * @param maxAsyncRequests
+	 */
+	public synchronized void setMaxAsyncRequests(int maxAsyncRequests) {
+		if (maxAsyncRequests <= 0) {
+			throw new IllegalArgumentException("maxAsyncRequests <= 0");
+		}
+		mMaxAsyncRequests = maxAsyncRequests;
+		if (null == mDispatcher) {
+			return;
+		}
+		if (maxAsyncRequests > mDispatcher.getMaximumPoolSize()) {
+			mDispatcher.setMaximumPoolSize(maxAsyncRequests);
+			mDispatcher.setCorePoolSize(maxAsyncRequests);
+		} else {
+			mDispatcher.setCorePoolSize(maxAsyncRequests);
+			mDispatcher.setMaximumPoolSize(maxAsyncRequests);
+		}
+	}
+
+	public synchronized int getMaxAsyncRequests() {
+		return mMaxAsyncRequests;
+	}
+
+	private synchronized ThreadPoolExecutor getDispatcher() {
+		if (null == mDispatcher) {
+			mDispatcher = new ThreadPoolExecutor(mMaxAsyncRequests,
+					mMaxAsyncRequests, 0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						private final AtomicInteger mCount = new AtomicInteger(
+								1);
+
+						@Override
+						public Thread newThread(final Runnable runnable) {
+							return new Thread(new Runnable() {
+								@Override
+								public void run() {
+									Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+									runnable.run();
+								}
+							}, "HttpConnectionHelper #"
+									+ mCount.getAndIncrement());
+						}
+					});
+		}
+		return mDispatcher;
 	}
 
 	/**
@@ -320,6 +822,71 @@ public class HttpConnectionHelper implements HttpRequestInterceptor,
 		}
 	}
 
+	/**
+	 * Close the expired and idle connections periodically, the server may
+	 * have closed them, and they hold the sockets
+	 */
+	private class IdleConnectionReaper extends Thread {
+		public IdleConnectionReaper() {
+			super("HttpConnectionHelper-reaper");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+			while (true) {
+				try {
+					Thread.sleep(REAP_INTERVAL_MILLIS);
+				} catch (InterruptedException e) {
+					return;
+				}
+				mConnManager.closeExpiredConnections();
+				mConnManager.closeIdleConnections(mIdleTimeoutMillis,
+						TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * {@link ThreadSafeClientConnManager} which can report the statistics of
+	 * its pool
+	 */
+	private static class StatsClientConnManager extends
+			ThreadSafeClientConnManager {
+		public StatsClientConnManager(HttpParams params,
+				SchemeRegistry schemeRegistry) {
+			super(params, schemeRegistry);
+		}
+
+		@Override
+		protected AbstractConnPool createConnectionPool(HttpParams params) {
+			return new StatsConnPool(connOperator, params);
+		}
+
+		public ConnectionPoolStats getStats(int maxTotal) {
+			return ((StatsConnPool) connectionPool).getStats(maxTotal);
+		}
+	}
+
+	private static class StatsConnPool extends ConnPoolByRoute {
+		public StatsConnPool(ClientConnectionOperator operator,
+				HttpParams params) {
+			super(operator, params);
+		}
+
+		public ConnectionPoolStats getStats(int maxTotal) {
+			poolLock.lock();
+			try {
+				int available = freeConnections.size();
+				return new ConnectionPoolStats(numConnections - available,
+						available, waitingThreads.size(), maxTotal);
+			} finally {
+				poolLock.unlock();
+			}
+		}
+	}
+
 	/**
 	 * 
 	 * @author Tank
@@ -0,0 +1,124 @@
+/* Copyright (c) 2011-2012 Tang Ke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aretha.net;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+
+/**
+ * The failure of executing a request by {@link HttpConnectionHelper}, tells
+ * the timeout, the unreachable network and the cancellation apart
+ * 
+ * @author Tank
+ */
+public class HttpExecuteException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Failed for the reason not listed below
+	 */
+	public final static int TYPE_IO = 0;
+
+	/**
+	 * The connection, the response, or the free connection of the pool is
+	 * not got in time
+	 */
+	public final static int TYPE_TIMEOUT = 1;
+
+	/**
+	 * The host can not be resolved or connected
+	 */
+	public final static int TYPE_CONNECTION = 2;
+
+	/**
+	 * The server does not speak valid HTTP, or the redirect is broken
+	 */
+	public final static int TYPE_PROTOCOL = 3;
+
+	/**
+	 * The request has been canceled
+	 */
+	public final static int TYPE_CANCELED = 4;
+
+	/**
+	 * Not sent, the circuit of the host is open, see {@link CircuitBreaker}
+	 */
+	public final static int TYPE_CIRCUIT_OPEN = 5;
+
+	private final int mType;
+
+	public HttpExecuteException(int type, String message, Throwable cause) {
+		super(message);
+		mType = type;
+		if (null != cause) {
+			initCause(cause);
+		}
+	}
+
+	/**
+	 * One of {@link #TYPE_IO}, {@link #TYPE_TIMEOUT},
+	 * {@link #TYPE_CONNECTION}, {@link #TYPE_PROTOCOL}, {@link #TYPE_CANCELED}
+	 * and {@link #TYPE_CIRCUIT_OPEN}
+	 * 
+	 * @return
+	 */
+	public int getType() {
+		return mType;
+	}
+
+	/**
+	 * Wrap the exception thrown by executing the request
+	 * 
+	 * @param e
+	 * @param isCanceled
+	 *            whether the request has been aborted
+	 * @return
+	 */
+	public static HttpExecuteException wrap(IOException e, boolean isCanceled) {
+		if (e instanceof HttpExecuteException) {
+			return (HttpExecuteException) e;
+		}
+		int type = TYPE_IO;
+		if (isCanceled) {
+			type = TYPE_CANCELED;
+		} else if (e instanceof ConnectTimeoutException
+				|| e instanceof ConnectionPoolTimeoutException
+				|| e instanceof SocketTimeoutException) {
+			type = TYPE_TIMEOUT;
+		} else if (e instanceof UnknownHostException
+				|| e instanceof ConnectException
+				|| e instanceof NoRouteToHostException) {
+			type = TYPE_CONNECTION;
+		} else if (e instanceof ClientProtocolException) {
+			type = TYPE_PROTOCOL;
+		} else if (e instanceof InterruptedIOException) {
+			type = TYPE_CANCELED;
+		}
+		return new HttpExecuteException(type, e.getMessage(), e);
+	}
+
+	@Override
+	public String toString() {
+		return "HttpExecuteException[type=" + mType + "]: " + getMessage();
+	}
+}
@@ -0,0 +1,888 @@
+/* Copyright (c) 2011-2012 Tang Ke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aretha.net;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import com.aretha.content.FileCacheManager;
+import com.aretha.util.Utils;
+
+/**
+ * A disk cache of the GET responses for {@link HttpConnectionHelper}, which
+ * follows the Cache-Control, Expires, ETag and Last-Modified headers. The
+ * stale response is revalidated by If-None-Match and If-Modified-Since, and
+ * served from disk if the server answers 304
+ * 
+ * <p>
+ * The body is stored by {@link FileCacheManager}, and the headers are stored
+ * as its variant, so they are evicted together
+ * </p>
+ * 
+ * @author Tank
+ */
+public class HttpResponseCache {
+	private final static String LOG_TAG = "HttpResponseCache";
+
+	/**
+	 * Default max bytes of the cached responses
+	 */
+	public final static long DEFAULT_MAX_SIZE = 10 * 1024 * 1024;
+
+	private final static String DIRECTORY_NAME = "http";
+	private final static String VARIANT_HEADERS = "headers";
+	private final static int ENTRY_VERSION = 1;
+	private final static int MAX_ENTRY_SIZE_DIVIDER = 8;
+
+	private final static String HEADER_CACHE_CONTROL = "Cache-Control";
+	private final static String HEADER_PRAGMA = "Pragma";
+	private final static String HEADER_DATE = "Date";
+	private final static String HEADER_EXPIRES = "Expires";
+	private final static String HEADER_AGE = "Age";
+	private final static String HEADER_ETAG = "ETag";
+	private final static String HEADER_LAST_MODIFIED = "Last-Modified";
+	private final static String HEADER_VARY = "Vary";
+	private final static String HEADER_CONTENT_TYPE = "Content-Type";
+	private final static String HEADER_IF_NONE_MATCH = "If-None-Match";
+	private final static String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+	/**
+	 * the headers of the connection, they are not stored
+	 */
+	private final static String[] UNSTORED_HEADERS = { "Connection",
+			"Keep-Alive", "Proxy-Authenticate", "Proxy-Authorization", "TE",
+			"Trailer", "Transfer-Encoding", "Upgrade", "Set-Cookie" };
+
+	private final FileCacheManager mFileCacheManager;
+	private final long mMaxEntrySize;
+	private volatile boolean mIsStaleWhileRevalidate;
+
+	private ExecutorService mRevalidateExecutor;
+	/**
+	 * the urls being revalidated in background, the value is not used
+	 */
+	private final ConcurrentHashMap<String, Boolean> mRevalidatingUrls = new ConcurrentHashMap<String, Boolean>();
+
+	private final AtomicInteger mRequestCount = new AtomicInteger();
+	private final AtomicInteger mHitCount = new AtomicInteger();
+	private final AtomicInteger mConditionalHitCount = new AtomicInteger();
+	private final AtomicInteger mNetworkCount = new AtomicInteger();
+
+	/**
+	 * Store the responses in the cache directory of the application, at most
+	 * {@link #DEFAULT_MAX_SIZE} bytes
+	 * 
+	 * @param context
+	 */
+	public HttpResponseCache(Context context) {
+		this(context, new File(context.getCacheDir(), DIRECTORY_NAME),
+				DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * @param context
+	 * @param directory
+	 *            where the responses are stored, used by this cache only
+	 * @param maxSize
+	 *            max bytes of the cached responses
+	 */
+	public HttpResponseCache(Context context, File directory, long maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		directory.mkdirs();
+		mFileCacheManager = new FileCacheManager(context, directory);
+		mFileCacheManager.setMaxCacheSize(maxSize);
+		// one large response should not flush all the others
+		mMaxEntrySize = maxSize / MAX_ENTRY_SIZE_DIVIDER;
+	}
+
+	/**
+	 * Return the stale response immediately, and revalidate it in
+	 * background, the fresh one is returned next time. The response with
+	 * must-revalidate is always revalidated first
+	 * 
+	 * @param staleWhileRevalidate
+	 */
+	public void setStaleWhileRevalidate(boolean staleWhileRevalidate) {
+		mIsStaleWhileRevalidate = staleWhileRevalidate;
+	}
+
+	public boolean isStaleWhileRevalidate() {
+		return mIsStaleWhileRevalidate;
+	}
+
+	/**
+	 * Execute the request through the cache, the request which is not GET or
+	 * already conditional goes to the network directly
+	 * 
+	 * @throws IOException
+	 *             the request failed and no cached response can be served
+	 */
+	HttpResponse execute(HttpConnectionHelper helper, HttpUriRequest request)
+			throws IOException {
+		if (!HttpGet.METHOD_NAME.equals(request.getMethod())
+				|| request.containsHeader(HEADER_IF_NONE_MATCH)
+				|| request.containsHeader(HEADER_IF_MODIFIED_SINCE)) {
+			return helper.executeOnNetwork(request);
+		}
+		mRequestCount.incrementAndGet();
+
+		CacheControl requestControl = CacheControl.parse(request
+				.getHeaders(HEADER_CACHE_CONTROL));
+		if (requestControl.isNoStore) {
+			mNetworkCount.incrementAndGet();
+			return helper.executeOnNetwork(request);
+		}
+
+		final String url = request.getURI().toString();
+		Entry entry = null;
+		if (!requestControl.isNoCache && !isPragmaNoCache(request)) {
+			entry = readEntry(url);
+		}
+
+		if (null != entry) {
+			long now = System.currentTimeMillis();
+			if (entry.isFresh(now)) {
+				HttpResponse response = openResponse(url, entry);
+				if (null != response) {
+					mHitCount.incrementAndGet();
+					return response;
+				}
+				entry = null;
+			} else if (mIsStaleWhileRevalidate
+					&& !entry.getCacheControl().isMustRevalidate) {
+				HttpResponse response = openResponse(url, entry);
+				if (null != response) {
+					mHitCount.incrementAndGet();
+					revalidateInBackground(helper, request, entry);
+					return response;
+				}
+				entry = null;
+			}
+		}
+
+		mNetworkCount.incrementAndGet();
+		if (null == entry) {
+			return fetch(helper, request, url);
+		}
+		return revalidate(helper, request, url, entry);
+	}
+
+	private HttpResponse fetch(HttpConnectionHelper helper,
+			HttpUriRequest request, String url) throws IOException {
+		long requestMillis = System.currentTimeMillis();
+		HttpResponse response = helper.executeOnNetwork(request);
+		return store(url, response, requestMillis);
+	}
+
+	/**
+	 * Ask the server whether the cached response is still valid
+	 */
+	private HttpResponse revalidate(HttpConnectionHelper helper,
+			HttpUriRequest request, String url, Entry entry)
+			throws IOException {
+		// the conditions are added for this execution only
+		String etag = entry.getHeader(HEADER_ETAG);
+		String lastModified = entry.getHeader(HEADER_LAST_MODIFIED);
+		if (null != etag) {
+			request.addHeader(HEADER_IF_NONE_MATCH, etag);
+		}
+		if (null != lastModified) {
+			request.addHeader(HEADER_IF_MODIFIED_SINCE, lastModified);
+		}
+
+		long requestMillis = System.currentTimeMillis();
+		HttpResponse response;
+		try {
+			response = helper.executeOnNetwork(request);
+		} catch (IOException e) {
+			// the network is not available, the stale one is better than
+			// nothing
+			if (request.isAborted()
+					|| entry.getCacheControl().isMustRevalidate) {
+				throw e;
+			}
+			HttpResponse staleResponse = openResponse(url, entry);
+			if (null == staleResponse) {
+				throw e;
+			}
+			return staleResponse;
+		} finally {
+			request.removeHeaders(HEADER_IF_NONE_MATCH);
+			request.removeHeaders(HEADER_IF_MODIFIED_SINCE);
+		}
+
+		if (HttpStatus.SC_NOT_MODIFIED == response.getStatusLine()
+				.getStatusCode()) {
+			consumeQuietly(response);
+			entry.update(response, requestMillis, System.currentTimeMillis());
+			writeHeaders(url, entry);
+			HttpResponse cachedResponse = openResponse(url, entry);
+			if (null != cachedResponse) {
+				mConditionalHitCount.incrementAndGet();
+				return cachedResponse;
+			}
+			// evicted meanwhile, fetch it again
+			return fetch(helper, request, url);
+		}
+		return store(url, response, requestMillis);
+	}
+
+	private void revalidateInBackground(final HttpConnectionHelper helper,
+			HttpUriRequest request, final Entry entry) {
+		final String url = request.getURI().toString();
+		if (null != mRevalidatingUrls.putIfAbsent(url, Boolean.TRUE)) {
+			return;
+		}
+		final HttpGet revalidateRequest = new HttpGet(request.getURI());
+		revalidateRequest.setHeaders(request.getAllHeaders());
+		try {
+			getRevalidateExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						HttpResponse response = revalidate(helper,
+								revalidateRequest, url, entry);
+						drainQuietly(response);
+					} catch (IOException e) {
+						Log.d(LOG_TAG, "Can not revalidate: " + url);
+					} finally {
+						mRevalidatingUrls.remove(url);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			mRevalidatingUrls.remove(url);
+		}
+	}
+
+	private synchronized ExecutorService getRevalidateExecutor() {
+		if (null == mRevalidateExecutor) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30,
+					TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(final Runnable runnable) {
+							return new Thread(new Runnable() {
+								@Override
+								public void run() {
+									Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+									runnable.run();
+								}
+							}, LOG_TAG);
+						}
+					});
+			mRevalidateExecutor = executor;
+		}
+		return mRevalidateExecutor;
+	}
+
+	/**
+	 * Store the cacheable response while it is read by the caller
+	 * 
+	 * @return the response to return to the caller
+	 */
+	private HttpResponse store(String url, HttpResponse response,
+			long requestMillis) {
+		Entry entry = new Entry(response, requestMillis,
+				System.currentTimeMillis());
+		HttpEntity entity = response.getEntity();
+		if (!isCacheable(response, entry) || null == entity
+				|| entity.getContentLength() > mMaxEntrySize) {
+			// the cached one is replaced by the server
+			mFileCacheManager.deleteCache(url);
+			return response;
+		}
+
+		FileCacheManager.Editor editor = mFileCacheManager.edit(url);
+		if (null == editor) {
+			// being stored by another request
+			return response;
+		}
+		// the headers of the old response do not describe the new one
+		mFileCacheManager.deleteCache(url);
+		response.setEntity(new CachingEntity(entity, url, entry, editor));
+		return response;
+	}
+
+	private boolean isCacheable(HttpResponse response, Entry entry) {
+		if (HttpStatus.SC_OK != response.getStatusLine().getStatusCode()) {
+			return false;
+		}
+		CacheControl cacheControl = entry.getCacheControl();
+		if (cacheControl.isNoStore) {
+			return false;
+		}
+		// only the responses which do not vary by the request headers
+		for (Header header : response.getHeaders(HEADER_VARY)) {
+			for (HeaderElement element : header.getElements()) {
+				if (!"Accept-Encoding".equalsIgnoreCase(element.getName())) {
+					return false;
+				}
+			}
+		}
+		// can not be reused without revalidation
+		return mIsStaleWhileRevalidate || entry.computeFreshnessLifetime() > 0
+				|| null != entry.getHeader(HEADER_ETAG)
+				|| null != entry.getHeader(HEADER_LAST_MODIFIED);
+	}
+
+	private static boolean isPragmaNoCache(HttpUriRequest request) {
+		for (Header header : request.getHeaders(HEADER_PRAGMA)) {
+			for (HeaderElement element : header.getElements()) {
+				if ("no-cache".equalsIgnoreCase(element.getName())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return null if the response is not cached, or the headers do not
+	 *         match the body
+	 */
+	private Entry readEntry(String url) {
+		FileInputStream inputStream = mFileCacheManager.readVariantFile(url,
+				VARIANT_HEADERS);
+		if (null == inputStream) {
+			return null;
+		}
+		try {
+			Entry entry = Entry.read(new DataInputStream(inputStream));
+			if (null == entry
+					|| entry.bodyLength != mFileCacheManager
+							.getCacheFileLength(url)) {
+				return null;
+			}
+			return entry;
+		} catch (IOException e) {
+			Log.d(LOG_TAG, "Broken cache entry: " + url);
+			return null;
+		} finally {
+			Utils.closeQuietly(inputStream);
+		}
+	}
+
+	private void writeHeaders(String url, Entry entry) {
+		FileCacheManager.Editor editor = mFileCacheManager.editVariant(url,
+				VARIANT_HEADERS);
+		if (null == editor) {
+			return;
+		}
+		try {
+			DataOutputStream outputStream = new DataOutputStream(
+					editor.getOutputStream());
+			entry.write(outputStream);
+			outputStream.flush();
+			editor.commit();
+		} catch (IOException e) {
+			Log.d(LOG_TAG, "Can not write cache entry: " + url);
+		} finally {
+			editor.abort();
+		}
+	}
+
+	/**
+	 * @return null if the body is evicted
+	 */
+	private HttpResponse openResponse(String url, Entry entry) {
+		FileInputStream inputStream = mFileCacheManager.readCacheFile(url);
+		if (null == inputStream) {
+			return null;
+		}
+		BasicHttpResponse response = new BasicHttpResponse(
+				new BasicStatusLine(HttpVersion.HTTP_1_1, entry.statusCode,
+						entry.reasonPhrase));
+		response.setHeaders(entry.headers.toArray(new Header[entry.headers
+				.size()]));
+		InputStreamEntity entity = new InputStreamEntity(inputStream,
+				entry.bodyLength);
+		entity.setContentType(entry.getHeader(HEADER_CONTENT_TYPE));
+		response.setEntity(entity);
+		return response;
+	}
+
+	private static void consumeQuietly(HttpResponse response) {
+		HttpEntity entity = response.getEntity();
+		if (null == entity) {
+			return;
+		}
+		try {
+			entity.consumeContent();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Read the response to the end, so it is stored
+	 */
+	private static void drainQuietly(HttpResponse response) {
+		if (null == response || null == response.getEntity()) {
+			return;
+		}
+		InputStream inputStream = null;
+		try {
+			inputStream = response.getEntity().getContent();
+			byte[] buffer = new byte[8 * 1024];
+			while (inputStream.read(buffer) != -1) {
+			}
+		} catch (IOException e) {
+		} finally {
+			Utils.closeQuietly(inputStream);
+		}
+	}
+
+	/**
+	 * Remove all the cached responses
+	 */
+	public void clear() {
+		mFileCacheManager.clearAllCaches();
+	}
+
+	/**
+	 * Bytes of the cached responses
+	 * 
+	 * @return
+	 */
+	public long size() {
+		return mFileCacheManager.getCacheSize();
+	}
+
+	/**
+	 * Times of the GET request executed through this cache
+	 * 
+	 * @return
+	 */
+	public int requestCount() {
+		return mRequestCount.get();
+	}
+
+	/**
+	 * Times of the response served from disk without the network
+	 * 
+	 * @return
+	 */
+	public int hitCount() {
+		return mHitCount.get();
+	}
+
+	/**
+	 * Times of the response served from disk after the server answered 304
+	 * 
+	 * @return
+	 */
+	public int conditionalHitCount() {
+		return mConditionalHitCount.get();
+	}
+
+	/**
+	 * Times of the request sent to the network, including the conditional
+	 * ones
+	 * 
+	 * @return
+	 */
+	public int networkCount() {
+		return mNetworkCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"HttpResponseCache[size=%d,requests=%d,hits=%d,conditionalHits=%d,network=%d]",
+				size(), requestCount(), hitCount(), conditionalHitCount(),
+				networkCount());
+	}
+
+	/**
+	 * Write the body to the cache file while it is read, the entry is
+	 * committed at the end of the body
+	 */
+	private class CachingEntity extends HttpEntityWrapper {
+		private final String mUrl;
+		private final Entry mEntry;
+		private final FileCacheManager.Editor mEditor;
+		private InputStream mContent;
+
+		public CachingEntity(HttpEntity entity, String url, Entry entry,
+				FileCacheManager.Editor editor) {
+			super(entity);
+			mUrl = url;
+			mEntry = entry;
+			mEditor = editor;
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			if (null == mContent) {
+				mContent = new CachingInputStream(wrappedEntity.getContent());
+			}
+			return mContent;
+		}
+
+		@Override
+		public void consumeContent() throws IOException {
+			// not read to the end, the body is incomplete
+			mEditor.abort();
+			super.consumeContent();
+		}
+
+		private class CachingInputStream extends FilterInputStream {
+			private long mCount;
+			private boolean mIsWriting = true;
+			private final byte[] mSingleByte = new byte[1];
+
+			public CachingInputStream(InputStream inputStream) {
+				super(inputStream);
+			}
+
+			@Override
+			public int read() throws IOException {
+				return read(mSingleByte, 0, 1) == -1 ? -1
+						: mSingleByte[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] buffer, int offset, int count)
+					throws IOException {
+				int read;
+				try {
+					read = super.read(buffer, offset, count);
+				} catch (IOException e) {
+					stopWriting();
+					throw e;
+				}
+				if (read == -1) {
+					finishWriting();
+				} else {
+					write(buffer, offset, read);
+				}
+				return read;
+			}
+
+			@Override
+			public long skip(long count) throws IOException {
+				// the skipped bytes are not written
+				stopWriting();
+				return super.skip(count);
+			}
+
+			@Override
+			public boolean markSupported() {
+				return false;
+			}
+
+			@Override
+			public void close() throws IOException {
+				// the body not read to the end is not cached, the connection
+				// is released by the wrapped stream
+				stopWriting();
+				super.close();
+			}
+
+			private void write(byte[] buffer, int offset, int count) {
+				if (!mIsWriting) {
+					return;
+				}
+				mCount += count;
+				if (mCount > mMaxEntrySize) {
+					stopWriting();
+					return;
+				}
+				try {
+					mEditor.getOutputStream().write(buffer, offset, count);
+				} catch (IOException e) {
+					stopWriting();
+				}
+			}
+
+			private void finishWriting() {
+				if (!mIsWriting) {
+					return;
+				}
+				mIsWriting = false;
+				mEntry.bodyLength = mCount;
+				if (mEditor.commit()) {
+					writeHeaders(mUrl, mEntry);
+				}
+			}
+
+			private void stopWriting() {
+				mIsWriting = false;
+				mEditor.abort();
+			}
+		}
+	}
+
+	/**
+	 * The status and headers of a cached response
+	 */
+	private static class Entry {
+		public long requestMillis;
+		public long responseMillis;
+		public long bodyLength;
+		public int statusCode;
+		public String reasonPhrase;
+		public List<Header> headers = new ArrayList<Header>();
+
+		private CacheControl mCacheControl;
+
+		private Entry() {
+		}
+
+		public Entry(HttpResponse response, long requestMillis,
+				long responseMillis) {
+			this.requestMillis = requestMillis;
+			this.responseMillis = responseMillis;
+			statusCode = response.getStatusLine().getStatusCode();
+			reasonPhrase = response.getStatusLine().getReasonPhrase();
+			for (Header header : response.getAllHeaders()) {
+				if (isStored(header.getName())) {
+					headers.add(header);
+				}
+			}
+		}
+
+		private static boolean isStored(String name) {
+			for (String unstored : UNSTORED_HEADERS) {
+				if (unstored.equalsIgnoreCase(name)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Replace the headers by the ones of the 304 response
+		 */
+		public void update(HttpResponse response, long requestMillis,
+				long responseMillis) {
+			this.requestMillis = requestMillis;
+			this.responseMillis = responseMillis;
+			for (Header header : response.getAllHeaders()) {
+				String name = header.getName();
+				// the 304 response has no body
+				if (!isStored(name) || "Content-Length".equalsIgnoreCase(name)) {
+					continue;
+				}
+				for (int index = headers.size() - 1; index >= 0; index--) {
+					if (headers.get(index).getName().equalsIgnoreCase(name)) {
+						headers.remove(index);
+					}
+				}
+			}
+			for (Header header : response.getAllHeaders()) {
+				String name = header.getName();
+				if (isStored(name) && !"Content-Length".equalsIgnoreCase(name)) {
+					headers.add(header);
+				}
+			}
+			mCacheControl = null;
+		}
+
+		public String getHeader(String name) {
+			for (Header header : headers) {
+				if (header.getName().equalsIgnoreCase(name)) {
+					return header.getValue();
+				}
+			}
+			return null;
+		}
+
+		public CacheControl getCacheControl() {
+			if (null == mCacheControl) {
+				List<Header> cacheControlHeaders = new ArrayList<Header>();
+				for (Header header : headers) {
+					if (HEADER_CACHE_CONTROL.equalsIgnoreCase(header.getName())) {
+						cacheControlHeaders.add(header);
+					}
+				}
+				mCacheControl = CacheControl.parse(cacheControlHeaders
+						.toArray(new Header[cacheControlHeaders.size()]));
+			}
+			return mCacheControl;
+		}
+
+		/**
+		 * How long the response is fresh since it is generated, by max-age,
+		 * Expires, or 10% of the time since it is last modified
+		 */
+		public long computeFreshnessLifetime() {
+			CacheControl cacheControl = getCacheControl();
+			if (cacheControl.maxAgeSeconds >= 0) {
+				return cacheControl.maxAgeSeconds * 1000;
+			}
+			long dateMillis = parseDateHeader(HEADER_DATE, responseMillis);
+			long expiresMillis = parseDateHeader(HEADER_EXPIRES, -1);
+			if (null != getHeader(HEADER_EXPIRES)) {
+				// an invalid date means already expired
+				return Math.max(0, expiresMillis - dateMillis);
+			}
+			long lastModifiedMillis = parseDateHeader(HEADER_LAST_MODIFIED,
+					-1);
+			if (lastModifiedMillis >= 0 && dateMillis > lastModifiedMillis) {
+				return (dateMillis - lastModifiedMillis) / 10;
+			}
+			return 0;
+		}
+
+		/**
+		 * Age of the response now, including the time before it is received
+		 */
+		public long computeAge(long nowMillis) {
+			long dateMillis = parseDateHeader(HEADER_DATE, responseMillis);
+			long apparentAge = Math.max(0, responseMillis - dateMillis);
+			long ageHeader = 0;
+			String age = getHeader(HEADER_AGE);
+			if (null != age) {
+				try {
+					ageHeader = Long.parseLong(age.trim()) * 1000;
+				} catch (NumberFormatException e) {
+				}
+			}
+			return Math.max(apparentAge, ageHeader)
+					+ (responseMillis - requestMillis)
+					+ (nowMillis - responseMillis);
+		}
+
+		public boolean isFresh(long nowMillis) {
+			return !getCacheControl().isNoCache
+					&& computeAge(nowMillis) < computeFreshnessLifetime();
+		}
+
+		private long parseDateHeader(String name, long defaultMillis) {
+			String value = getHeader(name);
+			if (null == value) {
+				return defaultMillis;
+			}
+			try {
+				Date date = DateUtils.parseDate(value);
+				return date.getTime();
+			} catch (DateParseException e) {
+				return defaultMillis;
+			}
+		}
+
+		public void write(DataOutputStream outputStream) throws IOException {
+			outputStream.writeInt(ENTRY_VERSION);
+			outputStream.writeLong(requestMillis);
+			outputStream.writeLong(responseMillis);
+			outputStream.writeLong(bodyLength);
+			outputStream.writeInt(statusCode);
+			outputStream.writeUTF(null == reasonPhrase ? "" : reasonPhrase);
+			outputStream.writeInt(headers.size());
+			for (Header header : headers) {
+				outputStream.writeUTF(header.getName());
+				outputStream.writeUTF(header.getValue());
+			}
+		}
+
+		/**
+		 * @return null if it is written by another version
+		 */
+		public static Entry read(DataInputStream inputStream)
+				throws IOException {
+			if (ENTRY_VERSION != inputStream.readInt()) {
+				return null;
+			}
+			Entry entry = new Entry();
+			entry.requestMillis = inputStream.readLong();
+			entry.responseMillis = inputStream.readLong();
+			entry.bodyLength = inputStream.readLong();
+			entry.statusCode = inputStream.readInt();
+			entry.reasonPhrase = inputStream.readUTF();
+			int headerCount = inputStream.readInt();
+			for (int index = 0; index < headerCount; index++) {
+				entry.headers.add(new BasicHeader(inputStream.readUTF(),
+						inputStream.readUTF()));
+			}
+			return entry;
+		}
+	}
+
+	/**
+	 * The directives of the Cache-Control headers
+	 */
+	private static class CacheControl {
+		public boolean isNoCache;
+		public boolean isNoStore;
+		public boolean isMustRevalidate;
+		public long maxAgeSeconds = -1;
+
+		public static CacheControl parse(Header[] headers) {
+			CacheControl cacheControl = new CacheControl();
+			for (Header header : headers) {
+				for (HeaderElement element : header.getElements()) {
+					String name = element.getName();
+					if ("no-cache".equalsIgnoreCase(name)) {
+						cacheControl.isNoCache = true;
+					} else if ("no-store".equalsIgnoreCase(name)) {
+						cacheControl.isNoStore = true;
+					} else if ("must-revalidate".equalsIgnoreCase(name)
+							|| "proxy-revalidate".equalsIgnoreCase(name)) {
+						cacheControl.isMustRevalidate = true;
+					} else if ("max-age".equalsIgnoreCase(name)
+							&& null != element.getValue()) {
+						try {
+							cacheControl.maxAgeSeconds = Long
+									.parseLong(element.getValue().trim());
+						} catch (NumberFormatException e) {
+							// treated as expired
+							cacheControl.maxAgeSeconds = 0;
+						}
+					}
+				}
+			}
+			return cacheControl;
+		}
+	}
+}
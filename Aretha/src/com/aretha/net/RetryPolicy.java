@@ -0,0 +1,208 @@
+/* Copyright (c) 2011-2012 Tang Ke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aretha.net;
+
+import java.util.Date;
+import java.util.Random;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+/**
+ * When and how long {@link HttpConnectionHelper} waits before it executes the
+ * failed request again. Only the idempotent requests are retried, after an
+ * exponentially growing delay with jitter, or the delay told by the
+ * Retry-After header
+ * 
+ * @author Tank
+ */
+public class RetryPolicy {
+	public final static int DEFAULT_MAX_RETRIES = 3;
+	public final static long DEFAULT_INITIAL_BACKOFF_MILLIS = 500;
+	public final static long DEFAULT_MAX_BACKOFF_MILLIS = 30 * 1000;
+
+	private final static String HEADER_RETRY_AFTER = "Retry-After";
+	private final static int SC_TOO_MANY_REQUESTS = 429;
+
+	private final static String[] IDEMPOTENT_METHODS = { "GET", "HEAD",
+			"OPTIONS", "TRACE", "PUT", "DELETE" };
+
+	private final Random mRandom = new Random();
+
+	private int mMaxRetries = DEFAULT_MAX_RETRIES;
+	private long mInitialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+	private long mMaxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+
+	/**
+	 * Max times to execute the request again, not including the first one
+	 * 
+	 * @param maxRetries
+	 */
+	public void setMaxRetries(int maxRetries) {
+		if (maxRetries < 0) {
+			throw new IllegalArgumentException("maxRetries < 0");
+		}
+		mMaxRetries = maxRetries;
+	}
+
+	public int getMaxRetries() {
+		return mMaxRetries;
+	}
+
+	/**
+	 * The delay before the first retry, it is doubled for every later one
+	 * 
+	 * @param initialBackoffMillis
+	 */
+	public void setInitialBackoff(long initialBackoffMillis) {
+		mInitialBackoffMillis = initialBackoffMillis;
+	}
+
+	public long getInitialBackoff() {
+		return mInitialBackoffMillis;
+	}
+
+	/**
+	 * The max delay before a retry, the response whose Retry-After is longer
+	 * than this is not retried
+	 * 
+	 * @param maxBackoffMillis
+	 */
+	public void setMaxBackoff(long maxBackoffMillis) {
+		mMaxBackoffMillis = maxBackoffMillis;
+	}
+
+	public long getMaxBackoff() {
+		return mMaxBackoffMillis;
+	}
+
+	/**
+	 * Whether the request can be executed again without side effects
+	 * 
+	 * @param request
+	 * @return
+	 */
+	public boolean isRetryable(HttpUriRequest request) {
+		if (request.isAborted()) {
+			return false;
+		}
+		if (request instanceof HttpEntityEnclosingRequest) {
+			HttpEntity entity = ((HttpEntityEnclosingRequest) request)
+					.getEntity();
+			// the body can not be sent again
+			if (null != entity && !entity.isRepeatable()) {
+				return false;
+			}
+		}
+		String method = request.getMethod();
+		for (String idempotentMethod : IDEMPOTENT_METHODS) {
+			if (idempotentMethod.equals(method)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param retryCount
+	 *            retries done before
+	 * @param e
+	 * @return the delay before the retry, -1 if it should not be retried
+	 */
+	public long computeDelay(int retryCount, HttpExecuteException e) {
+		switch (e.getType()) {
+		case HttpExecuteException.TYPE_TIMEOUT:
+		case HttpExecuteException.TYPE_CONNECTION:
+		case HttpExecuteException.TYPE_IO:
+			return computeBackoff(retryCount);
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * @param retryCount
+	 *            retries done before
+	 * @param response
+	 * @return the delay before the retry, -1 if it should not be retried
+	 */
+	public long computeDelay(int retryCount, HttpResponse response) {
+		int statusCode = response.getStatusLine().getStatusCode();
+		switch (statusCode) {
+		case SC_TOO_MANY_REQUESTS:
+		case HttpStatus.SC_SERVICE_UNAVAILABLE:
+			long retryAfter = parseRetryAfter(response);
+			if (retryAfter > mMaxBackoffMillis) {
+				// the server will not be ready in time
+				return -1;
+			}
+			if (retryAfter >= 0) {
+				return retryAfter;
+			}
+			return computeBackoff(retryCount);
+		case HttpStatus.SC_REQUEST_TIMEOUT:
+		case HttpStatus.SC_BAD_GATEWAY:
+		case HttpStatus.SC_GATEWAY_TIMEOUT:
+			return computeBackoff(retryCount);
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Double the delay for every retry, then pick a random one in its upper
+	 * half, so the clients failed together do not retry together
+	 * 
+	 * @param retryCount
+	 * @return
+	 */
+	protected long computeBackoff(int retryCount) {
+		long backoff = mInitialBackoffMillis << Math.min(retryCount, 30);
+		if (backoff <= 0 || backoff > mMaxBackoffMillis) {
+			backoff = mMaxBackoffMillis;
+		}
+		long half = backoff / 2;
+		synchronized (mRandom) {
+			return half + (long) (mRandom.nextDouble() * (backoff - half));
+		}
+	}
+
+	/**
+	 * @return the delay in milliseconds, -1 if not told
+	 */
+	private static long parseRetryAfter(HttpResponse response) {
+		Header header = response.getFirstHeader(HEADER_RETRY_AFTER);
+		if (null == header || null == header.getValue()) {
+			return -1;
+		}
+		String value = header.getValue().trim();
+		try {
+			return Math.max(0, Long.parseLong(value) * 1000);
+		} catch (NumberFormatException e) {
+		}
+		try {
+			Date date = DateUtils.parseDate(value);
+			return Math.max(0, date.getTime() - System.currentTimeMillis());
+		} catch (DateParseException e) {
+			return -1;
+		}
+	}
+}
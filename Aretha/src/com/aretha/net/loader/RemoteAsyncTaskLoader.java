@@ -78,15 +78,19 @@ public class RemoteAsyncTaskLoader<Result> extends AsyncTaskLoader<Result> {
 		if (null == response) {
 			return null;
 		}
+		Reader reader = null;
 		try {
-			Result result = mResult = mParser.parse(fetch,
-					new InputStreamReader(response.getEntity().getContent()));
+			reader = new InputStreamReader(response.getEntity().getContent());
+			Result result = mResult = mParser.parse(fetch, reader);
 			Utils.debug(result);
 			return result;
 		} catch (IllegalStateException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
+		} finally {
+			// release the connection, or the cache file being written
+			Utils.closeQuietly(reader);
 		}
 
 		return null;
@@ -14,6 +14,8 @@
  */
 package com.aretha.util;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -29,6 +31,7 @@ import android.util.Log;
 public class Utils {
 	private static final String DEBUG_TAG = "Aretha";
 	private static final String ACTION_ADD_SHORTCUT = "com.android.launcher.action.INSTALL_SHORTCUT";
+	private static final int UUID_STRING_LENGTH = 36;
 
 	/**
 	 * Check whether the network connection is available
@@ -61,10 +64,49 @@ public class Utils {
 			return UUID.randomUUID();
 		}
 
-		try {
+		if (isUUIDString(text)) {
 			return UUID.fromString(text);
-		} catch (IllegalArgumentException e) {
-			return UUID.nameUUIDFromBytes(text.getBytes());
+		}
+		return UUID.nameUUIDFromBytes(text.getBytes());
+	}
+
+	/**
+	 * Check whether the text is the standard string representation of
+	 * {@link UUID}, without the cost of throwing exception
+	 * 
+	 * @param text
+	 * @return
+	 */
+	public static boolean isUUIDString(String text) {
+		if (null == text || UUID_STRING_LENGTH != text.length()) {
+			return false;
+		}
+		for (int index = 0; index < UUID_STRING_LENGTH; index++) {
+			final char c = text.charAt(index);
+			if (8 == index || 13 == index || 18 == index || 23 == index) {
+				if ('-' != c) {
+					return false;
+				}
+			} else if (Character.digit(c, 16) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Close the {@link Closeable} and ignore the {@link IOException}
+	 * 
+	 * @param closeable
+	 *            can be null
+	 */
+	public static void closeQuietly(Closeable closeable) {
+		if (null == closeable) {
+			return;
+		}
+		try {
+			closeable.close();
+		} catch (IOException e) {
 		}
 	}
 
@@ -0,0 +1,38 @@
+/* Copyright (c) 2011-2012 Tang Ke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aretha.widget;
+
+import android.view.View;
+import android.widget.AbsListView.OnScrollListener;
+
+/**
+ * Listen the scroll state of the widget which is not a
+ * {@link android.widget.AbsListView}, the states are the same as
+ * {@link OnScrollListener}
+ * 
+ * @author Tank
+ * 
+ */
+public interface OnScrollStateChangeListener {
+	/**
+	 * @param view
+	 *            the widget whose scroll state is changed
+	 * @param scrollState
+	 *            one of {@link OnScrollListener#SCROLL_STATE_IDLE},
+	 *            {@link OnScrollListener#SCROLL_STATE_TOUCH_SCROLL} and
+	 *            {@link OnScrollListener#SCROLL_STATE_FLING}
+	 */
+	public void onScrollStateChanged(View view, int scrollState);
+}
@@ -18,14 +18,31 @@ import android.content.Context;
 import android.graphics.Camera;
 import android.graphics.Matrix;
 import android.util.AttributeSet;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.animation.Transformation;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.Gallery;
 
 public class ShelfGallery extends Gallery {
+	/**
+	 * Gallery does not tell when the scroll stops, treat it as idle if no
+	 * child moves in this time
+	 */
+	private final static int SCROLL_IDLE_DELAY = 100;
+
 	private Camera mCamera;
 	private float mRotateDegree = 0f;
 
+	private int mScrollState = OnScrollListener.SCROLL_STATE_IDLE;
+	private OnScrollStateChangeListener mOnScrollStateChangeListener;
+	private final Runnable mScrollIdleRunnable = new Runnable() {
+		@Override
+		public void run() {
+			setScrollState(OnScrollListener.SCROLL_STATE_IDLE);
+		}
+	};
+
 	public ShelfGallery(Context context, AttributeSet attrs, int defStyle) {
 		super(context, attrs, defStyle);
 		initialize();
@@ -48,6 +65,61 @@ public class ShelfGallery extends Gallery {
 		setFadingEdgeLength(0);
 	}
 
+	@Override
+	public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX,
+			float distanceY) {
+		setScrollState(OnScrollListener.SCROLL_STATE_TOUCH_SCROLL);
+		return super.onScroll(e1, e2, distanceX, distanceY);
+	}
+
+	@Override
+	public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX,
+			float velocityY) {
+		setScrollState(OnScrollListener.SCROLL_STATE_FLING);
+		return super.onFling(e1, e2, velocityX, velocityY);
+	}
+
+	@Override
+	protected void onScrollChanged(int l, int t, int oldl, int oldt) {
+		super.onScrollChanged(l, t, oldl, oldt);
+		// the children are moved
+		if (mScrollState != OnScrollListener.SCROLL_STATE_IDLE) {
+			removeCallbacks(mScrollIdleRunnable);
+			postDelayed(mScrollIdleRunnable, SCROLL_IDLE_DELAY);
+		}
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		removeCallbacks(mScrollIdleRunnable);
+		setScrollState(OnScrollListener.SCROLL_STATE_IDLE);
+	}
+
+	private void setScrollState(int scrollState) {
+		if (scrollState != OnScrollListener.SCROLL_STATE_IDLE) {
+			removeCallbacks(mScrollIdleRunnable);
+			postDelayed(mScrollIdleRunnable, SCROLL_IDLE_DELAY);
+		}
+		if (mScrollState == scrollState) {
+			return;
+		}
+		mScrollState = scrollState;
+		if (null != mOnScrollStateChangeListener) {
+			mOnScrollStateChangeListener.onScrollStateChanged(this,
+					scrollState);
+		}
+	}
+
+	public OnScrollStateChangeListener getOnScrollStateChangeListener() {
+		return mOnScrollStateChangeListener;
+	}
+
+	public void setOnScrollStateChangeListener(
+			OnScrollStateChangeListener onScrollStateChangeListener) {
+		this.mOnScrollStateChangeListener = onScrollStateChangeListener;
+	}
+
 	@Override
 	protected int getChildDrawingOrder(int childCount, int i) {
 		return childCount - 1 - i;
@@ -16,14 +16,20 @@ package com.aretha.widget;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.net.Uri;
 import android.util.AttributeSet;
 import android.widget.ImageView;
 
 import com.aretha.content.image.AsyncImageLoader;
 import com.aretha.content.image.AsyncImageLoader.OnImageLoadListener;
+import com.aretha.content.image.DecodeOptions;
 
 public class WebImageView extends ImageView implements OnImageLoadListener {
 	private String mImageUrl;
+	private Bitmap mLoadedBitmap;
+	private boolean mIsBitmapReleased;
+	private int mLoadPriority = AsyncImageLoader.PRIORITY_VISIBLE;
+	private DecodeOptions mDecodeOptions;
 
 	public WebImageView(Context context, AttributeSet attrs, int defStyle) {
 		super(context, attrs, defStyle);
@@ -39,11 +45,54 @@ public class WebImageView extends ImageView implements OnImageLoadListener {
 
 	public void setImageUrl(String url) {
 		mImageUrl = url;
-		AsyncImageLoader.getInstance(getContext()).loadImage(url, this);
+		mIsBitmapReleased = false;
+		AsyncImageLoader imageLoader = AsyncImageLoader
+				.getInstance(getContext());
+		// the previous image will not be displayed anymore
+		imageLoader.cancel(this);
+		if (null == url || url.length() <= 0) {
+			return;
+		}
+		imageLoader.loadImage(Uri.parse(url), 0, 0, mDecodeOptions, this,
+				true, mLoadPriority);
+	}
+
+	/**
+	 * Set how to decode the image, such as {@link DecodeOptions#OPAQUE} for
+	 * the photos. Applied to the image set later
+	 * 
+	 * @param decodeOptions
+	 *            null for {@link DecodeOptions#DEFAULT}
+	 */
+	public void setDecodeOptions(DecodeOptions decodeOptions) {
+		mDecodeOptions = decodeOptions;
+	}
+
+	public DecodeOptions getDecodeOptions() {
+		return mDecodeOptions;
+	}
+
+	/**
+	 * Set the priority to load the image, the pending request will be
+	 * rescheduled
+	 * 
+	 * @param priority
+	 *            one of {@link AsyncImageLoader#PRIORITY_VISIBLE},
+	 *            {@link AsyncImageLoader#PRIORITY_PREFETCH} and
+	 *            {@link AsyncImageLoader#PRIORITY_BACKGROUND}
+	 */
+	public void setLoadPriority(int priority) {
+		mLoadPriority = priority;
+		AsyncImageLoader.getInstance(getContext()).setPriority(this, priority);
+	}
+
+	public int getLoadPriority() {
+		return mLoadPriority;
 	}
 
 	public void setImageUrl(String url, Bitmap defaultImage) {
 		setImageBitmap(defaultImage);
+		releaseLoadedBitmap();
 		setImageUrl(url);
 	}
 
@@ -52,6 +101,46 @@ public class WebImageView extends ImageView implements OnImageLoadListener {
 			boolean fromCache) {
 		if (mImageUrl.equals(loadedImageUrl)) {
 			setImageBitmap(bitmap);
+			// the previous bitmap is not drawn anymore
+			releaseLoadedBitmap();
+			mLoadedBitmap = bitmap;
+		} else {
+			AsyncImageLoader.getInstance(getContext()).releaseBitmap(bitmap);
+		}
+	}
+
+	private void releaseLoadedBitmap() {
+		if (null != mLoadedBitmap) {
+			AsyncImageLoader.getInstance(getContext()).releaseBitmap(
+					mLoadedBitmap);
+			mLoadedBitmap = null;
+		}
+	}
+
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+		// the bitmap has been reused by other image, load it again
+		if (mIsBitmapReleased && null != mImageUrl) {
+			setImageUrl(mImageUrl);
+		} else {
+			AsyncImageLoader.getInstance(getContext()).setPriority(this,
+					mLoadPriority);
+		}
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		// let the visible images load first
+		AsyncImageLoader.getInstance(getContext()).setPriority(this,
+				AsyncImageLoader.PRIORITY_BACKGROUND);
+		if (null != mLoadedBitmap
+				&& AsyncImageLoader.getInstance(getContext()).releaseBitmap(
+						mLoadedBitmap)) {
+			setImageDrawable(null);
+			mLoadedBitmap = null;
+			mIsBitmapReleased = true;
 		}
 	}
 
@@ -27,6 +27,7 @@ import android.view.ViewConfiguration;
 import android.view.ViewGroup;
 import android.view.animation.AnimationUtils;
 import android.view.animation.Interpolator;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.Scroller;
 
 import com.aretha.R;
@@ -53,6 +54,7 @@ public class Workspace extends ViewGroup {
 
 	private VelocityTracker mVelocityTracker;
 	private OnWorkspaceChangeListener mOnWorkspaceChangeListener;
+	private OnScrollStateChangeListener mOnScrollStateChangeListener;
 	private int mContentWidth;
 
 	private int mWidth;
@@ -139,14 +141,14 @@ public class Workspace extends ViewGroup {
 		super.computeScroll();
 		if (mScroller.computeScrollOffset()) {
 			if (mTouchState != TOUCH_STATE_FLING) {
-				mTouchState = TOUCH_STATE_FLING;
+				setTouchState(TOUCH_STATE_FLING);
 			}
 
 			scrollTo(mScroller.getCurrX(), 0);
 			invalidate();
 		} else {
 			if (mTouchState == TOUCH_STATE_FLING) {
-				mTouchState = TOUCH_STATE_IDLE;
+				setTouchState(TOUCH_STATE_IDLE);
 			}
 
 			if (mOnWorkspaceChangeListener != null
@@ -221,7 +223,7 @@ public class Workspace extends ViewGroup {
 			return !mTouchedInIngnoreChild;
 		case MotionEvent.ACTION_MOVE:
 			if (Math.abs(mTouchDownX - x) > mTouchSlop) {
-				mTouchState = TOUCH_STATE_SCROLLING;
+				setTouchState(TOUCH_STATE_SCROLLING);
 				requestDisallowInterceptTouchEvent(true);
 			}
 
@@ -398,6 +400,39 @@ public class Workspace extends ViewGroup {
 		this.mOnWorkspaceChangeListener = onWorkspaceChangeListener;
 	}
 
+	public OnScrollStateChangeListener getOnScrollStateChangeListener() {
+		return mOnScrollStateChangeListener;
+	}
+
+	public void setOnScrollStateChangeListener(
+			OnScrollStateChangeListener onScrollStateChangeListener) {
+		this.mOnScrollStateChangeListener = onScrollStateChangeListener;
+	}
+
+	private void setTouchState(int touchState) {
+		if (mTouchState == touchState) {
+			return;
+		}
+		mTouchState = touchState;
+
+		if (mOnScrollStateChangeListener == null) {
+			return;
+		}
+		int scrollState;
+		switch (touchState) {
+		case TOUCH_STATE_SCROLLING:
+			scrollState = OnScrollListener.SCROLL_STATE_TOUCH_SCROLL;
+			break;
+		case TOUCH_STATE_FLING:
+			scrollState = OnScrollListener.SCROLL_STATE_FLING;
+			break;
+		default:
+			scrollState = OnScrollListener.SCROLL_STATE_IDLE;
+			break;
+		}
+		mOnScrollStateChangeListener.onScrollStateChanged(this, scrollState);
+	}
+
 	public interface OnWorkspaceChangeListener {
 		public void onPageChange(int pageIndex);
 
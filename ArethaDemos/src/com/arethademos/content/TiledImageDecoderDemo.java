@@ -0,0 +1,255 @@
+package com.arethademos.content;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Debug;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import com.aretha.content.image.TiledImageDecoder;
+import com.aretha.content.image.TiledImageDecoder.OnTileLoadListener;
+import com.aretha.util.Utils;
+import com.arethademos.R;
+
+public class TiledImageDecoderDemo extends Activity {
+	private final static int REQUEST_PICK_IMAGE = 1;
+	private final static float MAX_SCALE = 4f;
+
+	private TiledImageView mTiledImageView;
+	private TextView mInfo;
+	private TiledImageDecoder mDecoder;
+	private long mMemoryHighWater;
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.tiled_image_decoder);
+
+		mInfo = (TextView) findViewById(R.id.tiled_image_info);
+		mTiledImageView = new TiledImageView(this);
+		((FrameLayout) findViewById(R.id.tiled_image_container)).addView(
+				mTiledImageView, new FrameLayout.LayoutParams(
+						ViewGroup.LayoutParams.FILL_PARENT,
+						ViewGroup.LayoutParams.FILL_PARENT));
+
+		if (!TiledImageDecoder.isSupported()) {
+			mInfo.setText(R.string.tiled_image_unsupported);
+			return;
+		}
+		openImage(getResources().openRawResource(R.drawable.logo_large));
+	}
+
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		if (null != mDecoder) {
+			mDecoder.recycle();
+		}
+	}
+
+	public void onClick(View v) {
+		final int id = v.getId();
+		if (id == R.id.tiled_image_zoom_in) {
+			mTiledImageView.zoom(2f);
+		} else if (id == R.id.tiled_image_zoom_out) {
+			mTiledImageView.zoom(0.5f);
+		} else if (id == R.id.tiled_image_pick) {
+			Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+			intent.setType("image/*");
+			startActivityForResult(intent, REQUEST_PICK_IMAGE);
+		}
+	}
+
+	@Override
+	protected void onActivityResult(int requestCode, int resultCode,
+			Intent data) {
+		super.onActivityResult(requestCode, resultCode, data);
+		if (REQUEST_PICK_IMAGE != requestCode || RESULT_OK != resultCode
+				|| null == data || null == data.getData()) {
+			return;
+		}
+		Uri uri = data.getData();
+		try {
+			openImage(getContentResolver().openInputStream(uri));
+		} catch (IOException e) {
+			mInfo.setText(R.string.tiled_image_error);
+		}
+	}
+
+	private void openImage(InputStream inputStream) {
+		if (!TiledImageDecoder.isSupported()) {
+			return;
+		}
+		if (null != mDecoder) {
+			mDecoder.recycle();
+			mDecoder = null;
+		}
+		try {
+			mDecoder = TiledImageDecoder.newInstance(inputStream);
+		} catch (IOException e) {
+			mInfo.setText(R.string.tiled_image_error);
+			return;
+		} finally {
+			Utils.closeQuietly(inputStream);
+		}
+		mMemoryHighWater = 0;
+		mTiledImageView.setDecoder(mDecoder);
+	}
+
+	/**
+	 * Record the peak of the used memory, the bitmaps are allocated in the
+	 * native heap before Honeycomb
+	 */
+	private void updateMemoryInfo(int sampleSize) {
+		Runtime runtime = Runtime.getRuntime();
+		long usedMemory = runtime.totalMemory() - runtime.freeMemory()
+				+ Debug.getNativeHeapAllocatedSize();
+		mMemoryHighWater = Math.max(mMemoryHighWater, usedMemory);
+		mInfo.setText(getString(R.string.tiled_image_memory,
+				mDecoder.getWidth(), mDecoder.getHeight(), sampleSize,
+				mDecoder.getTileCache().size() / 1024,
+				mMemoryHighWater / 1024));
+	}
+
+	private class TiledImageView extends View implements OnTileLoadListener {
+		private TiledImageDecoder mDecoder;
+		private float mScale;
+		private float mOffsetX;
+		private float mOffsetY;
+		private float mLastMotionX;
+		private float mLastMotionY;
+
+		private final Rect mVisibleRect = new Rect();
+		private final Rect mLoadedRect = new Rect();
+		private int mLoadedSampleSize;
+		private final Rect mTileRect = new Rect();
+		private final Rect mDrawRect = new Rect();
+
+		public TiledImageView(Context context) {
+			super(context);
+		}
+
+		public void setDecoder(TiledImageDecoder decoder) {
+			mDecoder = decoder;
+			mScale = 0;
+			mOffsetX = mOffsetY = 0;
+			mLoadedRect.setEmpty();
+			invalidate();
+		}
+
+		public void zoom(float factor) {
+			if (null == mDecoder) {
+				return;
+			}
+			final float centerX = (mOffsetX + getWidth() / 2) / mScale;
+			final float centerY = (mOffsetY + getHeight() / 2) / mScale;
+			mScale = Math.max(getFitScale(),
+					Math.min(MAX_SCALE, mScale * factor));
+			mOffsetX = centerX * mScale - getWidth() / 2;
+			mOffsetY = centerY * mScale - getHeight() / 2;
+			invalidate();
+		}
+
+		private float getFitScale() {
+			return Math.min(1f, Math.min((float) getWidth() / mDecoder.getWidth(),
+					(float) getHeight() / mDecoder.getHeight()));
+		}
+
+		@Override
+		public boolean onTouchEvent(MotionEvent event) {
+			switch (event.getAction()) {
+			case MotionEvent.ACTION_DOWN:
+				mLastMotionX = event.getX();
+				mLastMotionY = event.getY();
+				return true;
+			case MotionEvent.ACTION_MOVE:
+				mOffsetX += mLastMotionX - event.getX();
+				mOffsetY += mLastMotionY - event.getY();
+				mLastMotionX = event.getX();
+				mLastMotionY = event.getY();
+				invalidate();
+				return true;
+			}
+			return super.onTouchEvent(event);
+		}
+
+		@Override
+		protected void onDraw(Canvas canvas) {
+			final TiledImageDecoder decoder = mDecoder;
+			if (null == decoder || getWidth() <= 0 || getHeight() <= 0) {
+				return;
+			}
+			if (mScale <= 0) {
+				mScale = getFitScale();
+			}
+
+			// keep the image in the view
+			final float scaledWidth = decoder.getWidth() * mScale;
+			final float scaledHeight = decoder.getHeight() * mScale;
+			mOffsetX = scaledWidth <= getWidth() ? (scaledWidth - getWidth()) / 2
+					: Math.max(0, Math.min(scaledWidth - getWidth(), mOffsetX));
+			mOffsetY = scaledHeight <= getHeight() ? (scaledHeight - getHeight()) / 2
+					: Math.max(0,
+							Math.min(scaledHeight - getHeight(), mOffsetY));
+
+			mVisibleRect.set((int) (mOffsetX / mScale),
+					(int) (mOffsetY / mScale),
+					(int) Math.ceil((mOffsetX + getWidth()) / mScale),
+					(int) Math.ceil((mOffsetY + getHeight()) / mScale));
+			mVisibleRect.intersect(0, 0, decoder.getWidth(),
+					decoder.getHeight());
+
+			final int sampleSize = TiledImageDecoder.computeSampleSize(mScale);
+			final int columnCount = decoder.getColumnCount(sampleSize);
+			final int rowCount = decoder.getRowCount(sampleSize);
+			for (int row = 0; row < rowCount; row++) {
+				for (int column = 0; column < columnCount; column++) {
+					decoder.getTileRect(sampleSize, column, row, mTileRect);
+					if (!Rect.intersects(mTileRect, mVisibleRect)) {
+						continue;
+					}
+					Bitmap tile = decoder.getCachedTile(sampleSize, column,
+							row);
+					if (null == tile) {
+						continue;
+					}
+					mDrawRect.set(
+							(int) (mTileRect.left * mScale - mOffsetX),
+							(int) (mTileRect.top * mScale - mOffsetY),
+							(int) Math.ceil(mTileRect.right * mScale
+									- mOffsetX),
+							(int) Math.ceil(mTileRect.bottom * mScale
+									- mOffsetY));
+					canvas.drawBitmap(tile, null, mDrawRect, null);
+				}
+			}
+
+			// request the tiles only when scrolled or zoomed
+			if (sampleSize != mLoadedSampleSize
+					|| !mLoadedRect.contains(mVisibleRect)) {
+				mLoadedSampleSize = sampleSize;
+				mLoadedRect.set(mVisibleRect);
+				decoder.loadTiles(mVisibleRect, sampleSize, this);
+			}
+			updateMemoryInfo(sampleSize);
+		}
+
+		@Override
+		public void onTileLoaded(int sampleSize, int column, int row,
+				Bitmap tile) {
+			invalidate();
+		}
+	}
+}